@@ -169,6 +169,7 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
     @Override
     public String visitWhileStmt(Stmt.While stmt) {
+        if (stmt.isDoWhile) return parenthesize2("do", stmt.body, stmt.condition);
         return parenthesize2("while", stmt.condition, stmt.body);
     }
 
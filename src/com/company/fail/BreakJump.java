@@ -1,7 +0,0 @@
-package com.company.fail;
-
-class BreakJump extends RuntimeException {
-    BreakJump() {
-        super("break jump");
-    }
-}
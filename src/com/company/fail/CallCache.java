@@ -0,0 +1,41 @@
+package com.company.fail;
+
+// An inline cache for one call site. It remembers the last few callees seen
+// there whose arity matched the number of arguments, so calling one of them
+// again needs no type or arity check. Functions are remembered by their
+// declaration, so closures and bound methods made from the same one share an
+// entry. Sites that see more callees than that stop caching and always take
+// the checked path.
+class CallCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final Object[] targets = new Object[MAX_ENTRIES];
+    private int count = 0;
+    private boolean megamorphic = false;
+
+    boolean contains(Object callee) {
+        if (!megamorphic) {
+            Object target = target(callee);
+            for (int i = 0; i < count; i++) {
+                if (targets[i] == target) return true;
+            }
+        }
+        return false;
+    }
+
+    // Remembers a callee whose arity has been checked against this site.
+    void add(Callable callee) {
+        if (megamorphic) return;
+
+        if (count == MAX_ENTRIES) {
+            megamorphic = true;
+            return;
+        }
+        targets[count++] = target(callee);
+    }
+
+    private static Object target(Object callee) {
+        if (callee instanceof Function) return ((Function) callee).declaration;
+        return callee;
+    }
+}
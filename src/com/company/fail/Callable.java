@@ -1,8 +1,24 @@
 package com.company.fail;
 
-import java.util.List;
-
 interface Callable {
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
-}
\ No newline at end of file
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    // Entry points for calls with up to three arguments. Implementations
+    // override these so that such calls need no argument array.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[] {a});
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[] {a, b});
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, new Object[] {a, b, c});
+    }
+}
@@ -0,0 +1,10 @@
+package com.company.fail;
+
+// A mutable box holding a single value, shared by everything that refers to it.
+class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
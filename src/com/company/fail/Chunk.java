@@ -0,0 +1,36 @@
+package com.company.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class Chunk {
+    byte[] code = new byte[8];
+    int[] lines = new int[8];
+    int count = 0;
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+    void write(byte b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = b;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        Integer index = constantIndices.get(value);
+        if (index != null) return index;
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantIndices.put(value, constantCount);
+        return constantCount++;
+    }
+}
@@ -0,0 +1,453 @@
+package com.company.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes JVM class files for the Jit and JarWriter. Classes are written in the version 49
+// format, which the JVM verifies without the stack map frames later versions
+// require, so the code only has to keep track of how deep its operand stack
+// gets.
+class ClassFile {
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int ASTORE = 0x3a;
+    static final int IADD = 0x60;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int SWAP = 0x5f;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+    static final int IFNONNULL = 0xc7;
+
+    private static final int VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // Thrown when the class cannot be written, such as when a method is too
+    // large to jump across.
+    static class TooLarge extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final String name;
+    private final String superName;
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFile(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    static class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    class Code {
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        // Cleared after instructions control never falls through.
+        private boolean reachable = true;
+        private final List<Label> labels = new ArrayList<>();
+
+        private Code(int locals) {
+            this.maxLocals = locals;
+        }
+
+        int newLocal() {
+            return maxLocals++;
+        }
+
+        void op(int opcode) {
+            emit(opcode);
+            switch (opcode) {
+                case ACONST_NULL: case DUP: adjust(1); break;
+                case LDC2_W: adjust(2); break;
+                case IADD: case AALOAD: case POP: case ARETURN: adjust(-1); break;
+                case AASTORE: adjust(-3); break;
+                case DADD: case DSUB: case DMUL: case DDIV: adjust(-2); break;
+                case DCMPL: case DCMPG: adjust(-3); break;
+            }
+            if (opcode == ARETURN || opcode == RETURN) reachable = false;
+        }
+
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                emit(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                emit(BIPUSH);
+                emit(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                emit(SIPUSH);
+                emit16(value);
+            } else {
+                constant(integer(value));
+                return;
+            }
+            adjust(1);
+        }
+
+        void push(double value) {
+            emit(LDC2_W);
+            emit16(doubleConstant(value));
+            adjust(2);
+        }
+
+        void push(String value) {
+            constant(string(value));
+        }
+
+        private void constant(int index) {
+            if (index < 256) {
+                emit(LDC);
+                emit(index);
+            } else {
+                emit(LDC_W);
+                emit16(index);
+            }
+            adjust(1);
+        }
+
+        void load(int opcode, int local) {
+            local(opcode, local);
+            adjust(1);
+        }
+
+        void store(int local) {
+            local(ASTORE, local);
+            adjust(-1);
+        }
+
+        private void local(int opcode, int local) {
+            if (local < 256) {
+                emit(opcode);
+                emit(local);
+            } else {
+                emit(WIDE);
+                emit(opcode);
+                emit16(local);
+            }
+        }
+
+        void type(int opcode, String className) {
+            emit(opcode);
+            emit16(classRef(className));
+        }
+
+        void getStatic(String owner, String field, String descriptor) {
+            emit(GETSTATIC);
+            emit16(member(9, owner, field, descriptor));
+            adjust(1);
+        }
+
+        void invoke(int opcode, String owner, String method, String descriptor) {
+            emit(opcode);
+            emit16(member(10, owner, method, descriptor));
+            adjust(words(descriptor) - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        void jump(int opcode, Label target) {
+            adjust(opcode == GOTO ? 0 : -1);
+            if (target.stack == -1) target.stack = stack;
+            target.jumps.add(length);
+            if (!labels.contains(target)) labels.add(target);
+            emit(opcode);
+            emit16(0);
+            if (opcode == GOTO) reachable = false;
+        }
+
+        void mark(Label label) {
+            label.position = length;
+            if (!labels.contains(label)) labels.add(label);
+            if (!reachable && label.stack != -1) stack = label.stack;
+            reachable = true;
+        }
+
+        boolean isReachable() {
+            return reachable;
+        }
+
+        int length() {
+            return length;
+        }
+
+        // Change in stack depth a call with this descriptor makes, not
+        // counting the receiver.
+        private int words(String descriptor) {
+            int words = 0;
+            int i = 1;
+            while (descriptor.charAt(i) != ')') {
+                char c = descriptor.charAt(i);
+                if (c == 'D' || c == 'J') {
+                    words -= 2;
+                    i++;
+                    continue;
+                }
+                while (descriptor.charAt(i) == '[') i++;
+                if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+                words--;
+                i++;
+            }
+            char result = descriptor.charAt(i + 1);
+            if (result == 'D' || result == 'J') return words + 2;
+            if (result == 'V') return words;
+            return words + 1;
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        private void emit(int b) {
+            if (length == code.length) {
+                byte[] larger = new byte[code.length * 2];
+                System.arraycopy(code, 0, larger, 0, length);
+                code = larger;
+            }
+            code[length++] = (byte) b;
+        }
+
+        private void emit16(int value) {
+            emit(value >> 8);
+            emit(value);
+        }
+
+        private void patch() {
+            for (Label label : labels) {
+                for (int jump : label.jumps) {
+                    int offset = label.position - jump;
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new TooLarge();
+                    }
+                    code[jump + 1] = (byte) (offset >> 8);
+                    code[jump + 2] = (byte) offset;
+                }
+            }
+        }
+    }
+
+    Code code(int locals) {
+        return new Code(locals);
+    }
+
+    void method(String name, String descriptor, Code code) {
+        method(ACC_PUBLIC, name, descriptor, code);
+    }
+
+    void staticMethod(String name, String descriptor, Code code) {
+        method(ACC_PUBLIC | ACC_STATIC, name, descriptor, code);
+    }
+
+    private void method(int access, String name, String descriptor, Code code) {
+        code.patch();
+        if (code.length > 65535) throw new TooLarge();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + code.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(code.length);
+            out.write(code.code, 0, code.length);
+            out.writeShort(0);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] toByteArray() {
+        int thisClass = classRef(name);
+        int superClass = classRef(superName);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) out.write(method);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private int utf8(String value) {
+        Integer index = constants.get("U" + value);
+        if (index != null) return index;
+
+        try {
+            // Longer strings do not fit a constant.
+            if (value.length() > 65535 / 3) throw new TooLarge();
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return add("U" + value, 1);
+    }
+
+    private int classRef(String className) {
+        Integer index = constants.get("C" + className);
+        if (index != null) return index;
+
+        int nameIndex = utf8(className);
+        write(7, nameIndex);
+        return add("C" + className, 1);
+    }
+
+    private int string(String value) {
+        Integer index = constants.get("S" + value);
+        if (index != null) return index;
+
+        int valueIndex = utf8(value);
+        write(8, valueIndex);
+        return add("S" + value, 1);
+    }
+
+    private int integer(int value) {
+        Integer index = constants.get("I" + value);
+        if (index != null) return index;
+
+        try {
+            poolOut.writeByte(3);
+            poolOut.writeInt(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return add("I" + value, 1);
+    }
+
+    private int doubleConstant(double value) {
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = constants.get(key);
+        if (index != null) return index;
+
+        try {
+            poolOut.writeByte(6);
+            poolOut.writeDouble(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // Doubles take up two entries.
+        return add(key, 2);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + descriptor;
+        Integer index = constants.get(key);
+        if (index != null) return index;
+
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        try {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(ownerIndex);
+            poolOut.writeShort(nameAndType);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return add(key, 1);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + descriptor;
+        Integer index = constants.get(key);
+        if (index != null) return index;
+
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        try {
+            poolOut.writeByte(12);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(descriptorIndex);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return add(key, 1);
+    }
+
+    private void write(int tag, int index) {
+        try {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(index);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int add(String key, int size) {
+        if (poolCount + size > 65535) throw new TooLarge();
+        int index = poolCount;
+        constants.put(key, index);
+        poolCount += size;
+        return index;
+    }
+}
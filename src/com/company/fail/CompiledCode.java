@@ -0,0 +1,158 @@
+package com.company.fail;
+
+// Base class of the classes the Jit compiles functions into. The compiled
+// classes are defined by a class loader of their own, which puts them outside
+// of this package, so whatever they need from the Interpreter goes through
+// the methods here. Nodes of the tree are referred to by their index in
+// nodes, and are what runtime errors are reported at.
+public abstract class CompiledCode {
+    private final Interpreter interpreter;
+    private final Object[] nodes;
+
+    protected CompiledCode(Object interpreter, Object[] nodes) {
+        this.interpreter = (Interpreter) interpreter;
+        this.nodes = nodes;
+    }
+
+    // Runs the function in the frame at base, whose parameters have been
+    // filled in.
+    public abstract Object run(Object[] stack, int base);
+
+    protected final Object constant(int node) {
+        return nodes[node];
+    }
+
+    protected static Object uninitialized() {
+        return Interpreter.uninitialized;
+    }
+
+    protected static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    protected static Object not(Object value) {
+        return !Interpreter.isTruthy(value);
+    }
+
+    protected static double power(double base, double exponent) {
+        return Interpreter.power(base, exponent);
+    }
+
+    // Same as Double.equals(), which isEqual() relies on.
+    protected static boolean same(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    protected static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    protected final Object initialized(Object value, int node) {
+        if (value == Interpreter.uninitialized) {
+            throw new RuntimeError(((Expr.Variable) nodes[node]).name,
+                    "Variable must be initialized before use.");
+        }
+        return value;
+    }
+
+    protected final Object global(int node) {
+        return interpreter.visitVariableExpr((Expr.Variable) nodes[node]);
+    }
+
+    // The node is either an assignment or the variable of an increment.
+    protected final Object assignGlobal(Object value, int node) {
+        if (nodes[node] instanceof Expr.Assign) {
+            return interpreter.assignCompiled((Expr.Assign) nodes[node], value);
+        }
+        interpreter.assignVariable((Expr.Variable) nodes[node], value);
+        return value;
+    }
+
+    protected final Object compound(Object operand, Object current, int node) {
+        return interpreter.compound((Expr.Assign) nodes[node], current, operand);
+    }
+
+    protected final Object step(Object value, int node, double delta) {
+        interpreter.checkNumberOperand(((Expr.Unary) nodes[node]).operator, value);
+        return (double) value + delta;
+    }
+
+    protected final Object binary(Object left, Object right, int node) {
+        return interpreter.binary((Expr.Binary) nodes[node], left, right);
+    }
+
+    protected final Object negate(Object value, int node) {
+        return interpreter.negate(((Expr.Unary) nodes[node]).operator, value);
+    }
+
+    protected final Object get(Object object, int node) {
+        return interpreter.getProperty((Expr.Get) nodes[node], object);
+    }
+
+    protected final Object instance(Object object, int node) {
+        if (!(object instanceof Instance)) {
+            throw new RuntimeError(((Expr.Set) nodes[node]).name,
+                    "Only instances have fields.");
+        }
+        return object;
+    }
+
+    protected final Object set(Object object, Object value, int node) {
+        Expr.Set expr = (Expr.Set) nodes[node];
+        if (expr.cache == null) expr.cache = new PropertyCache();
+        expr.cache.set((Instance) object, expr.name, value);
+        return value;
+    }
+
+    // Returns the unbound method of the object the property refers to, or
+    // null if there is none.
+    protected final Object method(Object object, int node) {
+        return interpreter.method((Expr.Get) nodes[node], object);
+    }
+
+    // The call helpers take the receiver the callee is a method of, or null
+    // if it is any other value, and the arguments. There is one for each
+    // number of arguments up to three, and one taking them in an array.
+    protected final Object call0(Object receiver, Object callee, int node) {
+        return interpreter.callCompiled((Expr.Call) nodes[node], receiver, callee);
+    }
+
+    protected final Object call1(Object receiver, Object callee, Object a, int node) {
+        return interpreter.callCompiled((Expr.Call) nodes[node], receiver, callee, a);
+    }
+
+    protected final Object call2(Object receiver, Object callee, Object a, Object b, int node) {
+        return interpreter.callCompiled((Expr.Call) nodes[node], receiver, callee, a, b);
+    }
+
+    protected final Object call3(Object receiver, Object callee,
+                                 Object a, Object b, Object c, int node) {
+        return interpreter.callCompiled((Expr.Call) nodes[node], receiver, callee, a, b, c);
+    }
+
+    protected final Object call(Object receiver, Object callee, Object[] arguments, int node) {
+        return interpreter.callCompiled((Expr.Call) nodes[node], receiver, callee, arguments);
+    }
+
+    // Same as the call helpers, for calls in tail position.
+    protected final Object tailCall0(Object receiver, Object callee, int node) {
+        return interpreter.tailCallCompiled((Expr.Call) nodes[node], receiver, callee);
+    }
+
+    protected final Object tailCall1(Object receiver, Object callee, Object a, int node) {
+        return interpreter.tailCallCompiled((Expr.Call) nodes[node], receiver, callee, a);
+    }
+
+    protected final Object tailCall2(Object receiver, Object callee, Object a, Object b, int node) {
+        return interpreter.tailCallCompiled((Expr.Call) nodes[node], receiver, callee, a, b);
+    }
+
+    protected final Object tailCall3(Object receiver, Object callee,
+                                     Object a, Object b, Object c, int node) {
+        return interpreter.tailCallCompiled((Expr.Call) nodes[node], receiver, callee, a, b, c);
+    }
+
+    protected final Object tailCall(Object receiver, Object callee, Object[] arguments, int node) {
+        return interpreter.tailCallCompiled((Expr.Call) nodes[node], receiver, callee, arguments);
+    }
+}
@@ -0,0 +1,734 @@
+package com.company.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_CONSTANTS = 65536;
+    private static final int MAX_GLOBALS = 65535;
+    private static final int MAX_JUMP = 65535;
+
+    private final VM vm;
+    private FunctionState current = null;
+    private int line = 1;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int scopeDepth;
+        // Target of 'continue', or -1 while it is not emitted yet.
+        int start = -1;
+        final List<Integer> continueJumps = new ArrayList<>();
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final ObjFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        Loop loop = null;
+
+        FunctionState(FunctionState enclosing, ObjFunction function,
+                      FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // Slot zero holds the receiver in methods and the callee otherwise.
+            boolean hasReceiver = type == FunctionType.METHOD ||
+                    type == FunctionType.INITIALIZER;
+            locals.add(new Local(hasReceiver ? "this" : "", 0));
+        }
+    }
+
+    Compiler(VM vm) {
+        this.vm = vm;
+    }
+
+    ObjFunction compile(List<Stmt> statements) {
+        beginFunction(new ObjFunction(null, 0, false), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emitReturn();
+        return endFunction().function;
+    }
+
+    ObjFunction compileExpression(Expr expression) {
+        beginFunction(new ObjFunction(null, 0, false), FunctionType.SCRIPT);
+        compile(expression);
+        emitByte(OpCode.RETURN);
+        return endFunction().function;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        declareVariable(stmt.name.lexeme);
+        emitByte(OpCode.NONE);
+        defineVariable(stmt.name);
+
+        if (stmt.superclass != null) {
+            beginScope();
+            compile(stmt.superclass);
+            addLocal("super");
+            compile(new Expr.Variable(syntheticToken("super")));
+        }
+
+        line = stmt.name.line;
+        emitByte(OpCode.CLASS);
+        emitShort(identifierConstant(stmt.name));
+        emitByte(stmt.superclass != null ? (byte) 1 : (byte) 0);
+
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = FunctionType.METHOD;
+            if (method.name.lexeme.equals("init")) {
+                type = FunctionType.INITIALIZER;
+            }
+            function(method.name.lexeme, method.function, type);
+            emitByte(OpCode.METHOD);
+            emitShort(identifierConstant(method.name));
+        }
+
+        for (Stmt.Function method : stmt.classMethods) {
+            function(method.name.lexeme, method.function, FunctionType.METHOD);
+            emitByte(OpCode.CLASS_METHOD);
+            emitShort(identifierConstant(method.name));
+        }
+
+        setVariable(stmt.name);
+        emitByte(OpCode.POP);
+
+        if (stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emitByte(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        declareVariable(stmt.name.lexeme);
+        function(stmt.name.lexeme, stmt.function, FunctionType.FUNCTION);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emitByte(OpCode.POP);
+
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emitByte(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emitByte(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emitByte(OpCode.UNINITIALIZED);
+        }
+
+        line = stmt.name.line;
+        declareVariable(stmt.name.lexeme);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.isDoWhile) {
+            compileDoWhile(stmt);
+            return null;
+        }
+
+        Loop loop = beginLoop();
+        loop.start = current.function.chunk.count;
+
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loop.start);
+
+        patchJump(exitJump);
+        emitByte(OpCode.POP);
+        endLoop();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        Loop loop = current.loop;
+        discardLocals(loop.scopeDepth);
+        loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        Loop loop = current.loop;
+        discardLocals(loop.scopeDepth);
+        if (loop.start != -1) {
+            emitLoop(loop.start);
+        } else {
+            loop.continueJumps.add(emitJump(OpCode.JUMP));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+
+        if (expr.equals.type != TokenType.EQUAL) {
+            getVariable(expr.name);
+            line = expr.equals.line;
+            emitBytes(OpCode.COMPOUND, compoundOperator(expr.equals.type));
+        }
+
+        setVariable(expr.name);
+        return null;
+    }
+
+    private byte compoundOperator(TokenType type) {
+        switch (type) {
+            case PLUS_EQUAL: return OpCode.ADD;
+            case MINUS_EQUAL: return OpCode.SUBTRACT;
+            case STAR_EQUAL: return OpCode.MULTIPLY;
+            case SLASH_EQUAL: return OpCode.DIVIDE;
+            default: return OpCode.POWER;
+        }
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        if (expr.operator.type == TokenType.COMMA) {
+            compile(expr.left);
+            emitByte(OpCode.POP);
+            compile(expr.right);
+            return null;
+        }
+
+        compile(expr.left);
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER: emitByte(OpCode.GREATER); break;
+            case GREATER_EQUAL: emitByte(OpCode.GREATER_EQUAL); break;
+            case LESS: emitByte(OpCode.LESS); break;
+            case LESS_EQUAL: emitByte(OpCode.LESS_EQUAL); break;
+            case BANG_EQUAL: emitBytes(OpCode.EQUAL, OpCode.NOT); break;
+            case EQUAL_EQUAL: emitByte(OpCode.EQUAL); break;
+            case MINUS: emitByte(OpCode.SUBTRACT); break;
+            case PLUS: emitByte(OpCode.ADD); break;
+            case SLASH: emitByte(OpCode.DIVIDE); break;
+            case STAR: emitByte(OpCode.MULTIPLY); break;
+            case STAR_STAR: emitByte(OpCode.POWER); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        function(null, expr, FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+
+        line = expr.paren.line;
+        emitBytes(OpCode.CALL, (byte) expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitByte(OpCode.GET_PROPERTY);
+        emitShort(identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitByte(OpCode.SET_PROPERTY);
+        emitShort(identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        getVariable(syntheticToken("this"));
+        getVariable(syntheticToken("super"));
+        line = expr.method.line;
+        emitByte(OpCode.GET_SUPER);
+        emitShort(identifierConstant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        getVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emitByte(OpCode.NONE);
+        } else if (expr.value instanceof Boolean) {
+            emitByte((boolean) expr.value ? OpCode.TRUE : OpCode.FALSE);
+        } else {
+            emitConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emitByte(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emitByte(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        boolean isIncrement = expr.operator.type == TokenType.PLUS_PLUS;
+        boolean isDecrement = expr.operator.type == TokenType.MINUS_MINUS;
+
+        if ((isIncrement || isDecrement) && expr.right instanceof Expr.Variable) {
+            Token name = ((Expr.Variable) expr.right).name;
+            getVariable(name);
+            if (expr.postfix) emitByte(OpCode.DUP);
+            line = expr.operator.line;
+            emitByte(isIncrement ? OpCode.INCREMENT : OpCode.DECREMENT);
+            setVariable(name);
+            if (expr.postfix) emitByte(OpCode.POP);
+            return null;
+        }
+
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG:
+                emitByte(OpCode.NOT);
+                break;
+            case MINUS:
+                emitByte(OpCode.NEGATE);
+                break;
+            case PLUS_PLUS:
+                emitError("Operand of an increment operator must be a variable.");
+                break;
+            case MINUS_MINUS:
+                emitError("Operand of a decrement operator must be a variable.");
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.expr);
+
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(expr.thenBranch);
+
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emitByte(OpCode.POP);
+        compile(expr.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        getVariable(expr.name);
+        return null;
+    }
+
+    private void compileDoWhile(Stmt.While stmt) {
+        int bodyStart = current.function.chunk.count;
+        Loop loop = beginLoop();
+        compile(stmt.body);
+
+        loop.start = current.function.chunk.count;
+        for (int jump : loop.continueJumps) {
+            patchJump(jump);
+        }
+
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        emitLoop(bodyStart);
+
+        patchJump(exitJump);
+        emitByte(OpCode.POP);
+        endLoop();
+    }
+
+    private Loop beginLoop() {
+        current.loop = new Loop(current.loop, current.scopeDepth);
+        return current.loop;
+    }
+
+    private void endLoop() {
+        for (int jump : current.loop.breakJumps) {
+            patchJump(jump);
+        }
+        current.loop = current.loop.enclosing;
+    }
+
+    private void function(String name, Expr.Function declaration, FunctionType type) {
+        int arity = declaration.parameters == null ? 0 : declaration.parameters.size();
+        ObjFunction function = new ObjFunction(name, arity,
+                declaration.parameters == null);
+        beginFunction(function, type);
+        beginScope();
+
+        if (declaration.parameters != null) {
+            for (Token param : declaration.parameters) {
+                declareVariable(param.lexeme);
+            }
+        }
+
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        emitReturn();
+
+        FunctionState state = endFunction();
+        emitByte(OpCode.CLOSURE);
+        emitShort(makeConstant(function));
+        for (Upvalue upvalue : state.upvalues) {
+            emitByte(upvalue.isLocal ? (byte) 1 : (byte) 0);
+            emitByte((byte) upvalue.index);
+        }
+    }
+
+    private void beginFunction(ObjFunction function, FunctionType type) {
+        current = new FunctionState(current, function, type);
+    }
+
+    private FunctionState endFunction() {
+        FunctionState state = current;
+        state.function.upvalueCount = state.upvalues.size();
+        current = state.enclosing;
+        return state;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() &&
+                locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            Local local = locals.remove(locals.size() - 1);
+            emitByte(local.isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+
+    // Pops the locals deeper than depth without forgetting them, for jumps
+    // that leave their scopes early.
+    private void discardLocals(int depth) {
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth > depth; i--) {
+            emitByte(locals.get(i).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+
+    private void declareVariable(String name) {
+        if (current.scopeDepth == 0) return;
+        addLocal(name);
+    }
+
+    private void addLocal(String name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            Fail.error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) return;
+
+        emitByte(OpCode.DEFINE_GLOBAL);
+        emitShort(globalSlot(name));
+    }
+
+    private void getVariable(Token name) {
+        line = name.line;
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            emitBytes(OpCode.GET_LOCAL, (byte) arg);
+        } else if ((arg = resolveUpvalue(current, name.lexeme)) != -1) {
+            emitBytes(OpCode.GET_UPVALUE, (byte) arg);
+        } else {
+            emitByte(OpCode.GET_GLOBAL);
+            emitShort(globalSlot(name));
+        }
+    }
+
+    private void setVariable(Token name) {
+        line = name.line;
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            emitBytes(OpCode.SET_LOCAL, (byte) arg);
+        } else if ((arg = resolveUpvalue(current, name.lexeme)) != -1) {
+            emitBytes(OpCode.SET_UPVALUE, (byte) arg);
+        } else {
+            emitByte(OpCode.SET_GLOBAL);
+            emitShort(globalSlot(name));
+        }
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            Fail.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private Token syntheticToken(String text) {
+        return new Token(TokenType.IDENTIFIER, text, null, line);
+    }
+
+    private int globalSlot(Token name) {
+        int slot = vm.globalSlot(name.lexeme);
+        if (slot > MAX_GLOBALS) {
+            Fail.error(name, "Too many global variables.");
+            return 0;
+        }
+        return slot;
+    }
+
+    private int identifierConstant(Token name) {
+        return makeConstant(name.lexeme);
+    }
+
+    private int makeConstant(Object value) {
+        int constant = current.function.chunk.addConstant(value);
+        if (constant >= MAX_CONSTANTS) {
+            Fail.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return constant;
+    }
+
+    private void emitByte(byte b) {
+        current.function.chunk.write(b, line);
+    }
+
+    private void emitBytes(byte b1, byte b2) {
+        emitByte(b1);
+        emitByte(b2);
+    }
+
+    private void emitShort(int value) {
+        emitByte((byte) ((value >> 8) & 0xff));
+        emitByte((byte) (value & 0xff));
+    }
+
+    private void emitConstant(Object value) {
+        emitByte(OpCode.CONSTANT);
+        emitShort(makeConstant(value));
+    }
+
+    private void emitError(String message) {
+        emitByte(OpCode.ERROR);
+        emitShort(makeConstant(message));
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emitBytes(OpCode.GET_LOCAL, (byte) 0);
+        } else {
+            emitByte(OpCode.NONE);
+        }
+        emitByte(OpCode.RETURN);
+    }
+
+    private int emitJump(byte instruction) {
+        emitByte(instruction);
+        emitShort(0xffff);
+        return current.function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        Chunk chunk = current.function.chunk;
+        // -2 to adjust for the bytecode for the jump offset itself.
+        int jump = chunk.count - offset - 2;
+        if (jump > MAX_JUMP) {
+            Fail.error(line, "Too much code to jump over.");
+        }
+
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitByte(OpCode.LOOP);
+
+        int offset = current.function.chunk.count - loopStart + 2;
+        if (offset > MAX_JUMP) Fail.error(line, "Loop body too large.");
+
+        emitShort(offset);
+    }
+}
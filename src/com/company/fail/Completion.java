@@ -0,0 +1,9 @@
+package com.company.fail;
+
+// How a statement finished when it did not simply fall through to the next
+// one. Normal completion is null.
+enum Completion {
+    BREAK,
+    CONTINUE,
+    RETURN
+}
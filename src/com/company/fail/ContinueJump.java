@@ -1,7 +0,0 @@
-package com.company.fail;
-
-class ContinueJump extends RuntimeException {
-    ContinueJump() {
-        super("continue jump");
-    }
-}
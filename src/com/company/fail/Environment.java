@@ -1,58 +0,0 @@
-package com.company.fail;
-
-
-import java.util.HashMap;
-import java.util.Map;
-
-class Environment {
-    public Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-
-    Environment() {
-        enclosing = null;
-    }
-
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
-    }
-
-    void define(String name, Object value) {
-        values.put(name, value);
-    }
-
-    Environment ancestor(int n) {
-        Environment environment = this;
-        for (int i = 0; i < n; i++) {
-            environment = environment.enclosing;
-        }
-        return environment;
-    }
-
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) return values.get(name.lexeme);
-
-        if (enclosing != null) return enclosing.get(name);
-
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.lexeme + "'.");
-    }
-
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
-    }
-
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.lexeme + "'.");
-    }
-}
\ No newline at end of file
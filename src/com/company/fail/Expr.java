@@ -1,5 +1,6 @@
 package com.company.fail;
 
+import java.io.IOException;
 import java.util.List;
 
 abstract class Expr {
@@ -27,6 +28,13 @@ abstract class Expr {
       this.equals = equals;
     }
 
+    static Assign read(TreeReader in) throws IOException {
+      return new Assign(
+          in.read(Token.class),
+          in.read(Expr.class),
+          in.read(Token.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitAssignExpr(this);
     }
@@ -34,6 +42,41 @@ abstract class Expr {
     final Token name;
     final Expr value;
     final Token equals;
+    int slot;
+    boolean isGlobal;
+    boolean isUpvalue;
+    boolean isBoxed;
+    Cell cell;
+    Superinstruction superinstruction;
+    double step;
+
+    int kind() {
+      return 0;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(name);
+      out.write(value);
+      out.write(equals);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeInt(slot);
+      out.writeBoolean(isGlobal);
+      out.writeBoolean(isUpvalue);
+      out.writeBoolean(isBoxed);
+      out.write(superinstruction);
+      out.writeDouble(step);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      slot = in.readInt();
+      isGlobal = in.readBoolean();
+      isUpvalue = in.readBoolean();
+      isBoxed = in.readBoolean();
+      superinstruction = in.read(Superinstruction.class);
+      step = in.readDouble();
+    }
   }
 
   static class Binary extends Expr {
@@ -43,6 +86,13 @@ abstract class Expr {
       this.right = right;
     }
 
+    static Binary read(TreeReader in) throws IOException {
+      return new Binary(
+          in.read(Expr.class),
+          in.read(Token.class),
+          in.read(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBinaryExpr(this);
     }
@@ -50,6 +100,34 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    Specialization specialization;
+    Invariant invariant;
+    Superinstruction superinstruction;
+    Type operands;
+
+    int kind() {
+      return 1;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(left);
+      out.write(operator);
+      out.write(right);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.write(specialization);
+      out.write(invariant);
+      out.write(superinstruction);
+      out.write(operands);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      specialization = in.read(Specialization.class);
+      invariant = in.read(Invariant.class);
+      superinstruction = in.read(Superinstruction.class);
+      operands = in.read(Type.class);
+    }
   }
 
   static class Function extends Expr {
@@ -58,12 +136,49 @@ abstract class Expr {
       this.body = body;
     }
 
+    static Function read(TreeReader in) throws IOException {
+      return new Function(
+          in.readList(Token.class),
+          in.readList(Stmt.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionExpr(this);
     }
 
     final List<Token> parameters;
     final List<Stmt> body;
+    int size;
+    int[] captures;
+    int[] boxedParameters;
+    Expr result;
+    int hotness;
+    CompiledCode compiled;
+
+    int kind() {
+      return 2;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(parameters);
+      out.write(body);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeInt(size);
+      out.write(captures);
+      out.write(boxedParameters);
+      out.write(result);
+      out.writeInt(hotness);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      size = in.readInt();
+      captures = in.read(int[].class);
+      boxedParameters = in.read(int[].class);
+      result = in.read(Expr.class);
+      hotness = in.readInt();
+    }
   }
 
   static class Call extends Expr {
@@ -73,6 +188,13 @@ abstract class Expr {
       this.arguments = arguments;
     }
 
+    static Call read(TreeReader in) throws IOException {
+      return new Call(
+          in.read(Expr.class),
+          in.read(Token.class),
+          in.readList(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitCallExpr(this);
     }
@@ -80,6 +202,32 @@ abstract class Expr {
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    CallCache cache;
+    int calls;
+    Expr inlined;
+    Expr.Function inlinedFunction;
+
+    int kind() {
+      return 3;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(callee);
+      out.write(paren);
+      out.write(arguments);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeInt(calls);
+      out.write(inlined);
+      out.write(inlinedFunction);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      calls = in.readInt();
+      inlined = in.read(Expr.class);
+      inlinedFunction = in.read(Expr.Function.class);
+    }
   }
 
   static class Super extends Expr {
@@ -88,12 +236,39 @@ abstract class Expr {
       this.method = method;
     }
 
+    static Super read(TreeReader in) throws IOException {
+      return new Super(
+          in.read(Token.class),
+          in.read(Token.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitSuperExpr(this);
     }
 
     final Token keyword;
     final Token method;
+    int slot;
+    Expr.This receiver;
+
+    int kind() {
+      return 4;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(keyword);
+      out.write(method);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeInt(slot);
+      out.write(receiver);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      slot = in.readInt();
+      receiver = in.read(Expr.This.class);
+    }
   }
 
   static class This extends Expr {
@@ -101,11 +276,39 @@ abstract class Expr {
       this.keyword = keyword;
     }
 
+    static This read(TreeReader in) throws IOException {
+      return new This(
+          in.read(Token.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitThisExpr(this);
     }
 
     final Token keyword;
+    int slot;
+    boolean isUpvalue;
+    boolean isBoxed;
+
+    int kind() {
+      return 5;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(keyword);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeInt(slot);
+      out.writeBoolean(isUpvalue);
+      out.writeBoolean(isBoxed);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      slot = in.readInt();
+      isUpvalue = in.readBoolean();
+      isBoxed = in.readBoolean();
+    }
   }
 
   static class Get extends Expr {
@@ -114,12 +317,46 @@ abstract class Expr {
       this.name = name;
     }
 
+    static Get read(TreeReader in) throws IOException {
+      return new Get(
+          in.read(Expr.class),
+          in.read(Token.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitGetExpr(this);
     }
 
     final Expr object;
     final Token name;
+    PropertyCache cache;
+    Invariant invariant;
+    int calls;
+    Expr inlined;
+    Expr.Function inlinedFunction;
+
+    int kind() {
+      return 6;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(object);
+      out.write(name);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.write(invariant);
+      out.writeInt(calls);
+      out.write(inlined);
+      out.write(inlinedFunction);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      invariant = in.read(Invariant.class);
+      calls = in.readInt();
+      inlined = in.read(Expr.class);
+      inlinedFunction = in.read(Expr.Function.class);
+    }
   }
 
   static class Set extends Expr {
@@ -129,6 +366,13 @@ abstract class Expr {
       this.value = value;
     }
 
+    static Set read(TreeReader in) throws IOException {
+      return new Set(
+          in.read(Expr.class),
+          in.read(Token.class),
+          in.read(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitSetExpr(this);
     }
@@ -136,6 +380,23 @@ abstract class Expr {
     final Expr object;
     final Token name;
     final Expr value;
+    PropertyCache cache;
+
+    int kind() {
+      return 7;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(object);
+      out.write(name);
+      out.write(value);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
   }
 
   static class Grouping extends Expr {
@@ -143,11 +404,30 @@ abstract class Expr {
       this.expression = expression;
     }
 
+    static Grouping read(TreeReader in) throws IOException {
+      return new Grouping(
+          in.read(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitGroupingExpr(this);
     }
 
     final Expr expression;
+
+    int kind() {
+      return 8;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(expression);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
   }
 
   static class Literal extends Expr {
@@ -155,11 +435,30 @@ abstract class Expr {
       this.value = value;
     }
 
+    static Literal read(TreeReader in) throws IOException {
+      return new Literal(
+          in.read(Object.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitLiteralExpr(this);
     }
 
     final Object value;
+
+    int kind() {
+      return 9;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(value);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
   }
 
   static class Logical extends Expr {
@@ -169,6 +468,13 @@ abstract class Expr {
       this.right = right;
     }
 
+    static Logical read(TreeReader in) throws IOException {
+      return new Logical(
+          in.read(Expr.class),
+          in.read(Token.class),
+          in.read(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitLogicalExpr(this);
     }
@@ -176,6 +482,22 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+
+    int kind() {
+      return 10;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(left);
+      out.write(operator);
+      out.write(right);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
   }
 
   static class Unary extends Expr {
@@ -185,6 +507,13 @@ abstract class Expr {
       this.postfix = postfix;
     }
 
+    static Unary read(TreeReader in) throws IOException {
+      return new Unary(
+          in.read(Token.class),
+          in.read(Expr.class),
+          in.read(Boolean.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitUnaryExpr(this);
     }
@@ -192,6 +521,25 @@ abstract class Expr {
     final Token operator;
     final Expr right;
     final Boolean postfix;
+    Superinstruction superinstruction;
+
+    int kind() {
+      return 11;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(operator);
+      out.write(right);
+      out.write(postfix);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.write(superinstruction);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      superinstruction = in.read(Superinstruction.class);
+    }
   }
 
   static class Ternary extends Expr {
@@ -201,6 +549,13 @@ abstract class Expr {
       this.elseBranch = elseBranch;
     }
 
+    static Ternary read(TreeReader in) throws IOException {
+      return new Ternary(
+          in.read(Expr.class),
+          in.read(Expr.class),
+          in.read(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitTernaryExpr(this);
     }
@@ -208,6 +563,22 @@ abstract class Expr {
     final Expr expr;
     final Expr thenBranch;
     final Expr elseBranch;
+
+    int kind() {
+      return 12;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(expr);
+      out.write(thenBranch);
+      out.write(elseBranch);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
   }
 
   static class Variable extends Expr {
@@ -215,12 +586,78 @@ abstract class Expr {
       this.name = name;
     }
 
+    static Variable read(TreeReader in) throws IOException {
+      return new Variable(
+          in.read(Token.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitVariableExpr(this);
     }
 
     final Token name;
+    int slot;
+    boolean isGlobal;
+    boolean isUpvalue;
+    boolean isBoxed;
+    Cell cell;
+    Stmt.Var declaration;
+    Type type;
+
+    int kind() {
+      return 13;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(name);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeInt(slot);
+      out.writeBoolean(isGlobal);
+      out.writeBoolean(isUpvalue);
+      out.writeBoolean(isBoxed);
+      out.write(declaration);
+      out.write(type);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      slot = in.readInt();
+      isGlobal = in.readBoolean();
+      isUpvalue = in.readBoolean();
+      isBoxed = in.readBoolean();
+      declaration = in.read(Stmt.Var.class);
+      type = in.read(Type.class);
+    }
+  }
+
+  static Expr read(TreeReader in, int kind) throws IOException {
+    switch (kind) {
+      case 0: return Assign.read(in);
+      case 1: return Binary.read(in);
+      case 2: return Function.read(in);
+      case 3: return Call.read(in);
+      case 4: return Super.read(in);
+      case 5: return This.read(in);
+      case 6: return Get.read(in);
+      case 7: return Set.read(in);
+      case 8: return Grouping.read(in);
+      case 9: return Literal.read(in);
+      case 10: return Logical.read(in);
+      case 11: return Unary.read(in);
+      case 12: return Ternary.read(in);
+      case 13: return Variable.read(in);
+    }
+    throw new IOException("Unknown kind of Expr.");
   }
 
   abstract <R> R accept(Visitor<R> visitor);
+
+  abstract int kind();
+
+  abstract void writeFields(TreeWriter out) throws IOException;
+
+  abstract void writeState(TreeWriter out) throws IOException;
+
+  abstract void readState(TreeReader in) throws IOException;
 }
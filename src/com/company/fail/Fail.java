@@ -2,6 +2,7 @@ package com.company.fail;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -9,23 +10,147 @@ import java.nio.file.Paths;
 import java.util.List;
 
 public class Fail {
-    private static final Interpreter interpreter = new Interpreter();
+    private static final int DEFAULT_MAX_DEPTH = 10000;
+    // Java stack reserved for each level of Fail calls.
+    private static final long STACK_PER_CALL = 8 * 1024;
+
+    private static Interpreter interpreter;
+    private static VM vm = null;
     private static boolean hadError = false;
     private static boolean hadRuntimeError = false;
+    private static boolean printStats = false;
+    private static Stats stats = null;
 
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jfail [script]");
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean jit = true;
+        boolean jar = false;
+        int maxDepth = DEFAULT_MAX_DEPTH;
+        String output = null;
+        String script = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--vm":
+                    vm = new VM();
+                    break;
+                case "--stats":
+                    printStats = true;
+                    break;
+                case "--no-jit":
+                    jit = false;
+                    break;
+                case "--max-depth":
+                    maxDepth = i + 1 < args.length ? parseDepth(args[++i]) : 0;
+                    if (maxDepth <= 0) {
+                        usage();
+                        return;
+                    }
+                    break;
+                case "--compile":
+                    jar = true;
+                    break;
+                case "-o":
+                    if (i + 1 == args.length) {
+                        usage();
+                        return;
+                    }
+                    output = args[++i];
+                    break;
+                default:
+                    if (args[i].startsWith("-") || script != null) {
+                        usage();
+                        return;
+                    }
+                    script = args[i];
+            }
+        }
+
+        if (jar != (output != null) || jar && script == null) {
+            usage();
+            return;
+        }
+        if (jar) {
+            compile(script, output);
+            return;
+        }
+
+        interpreter = new Interpreter(maxDepth, jit);
+        if (printStats) stats = interpreter.countStats();
+
+        String path = script;
+        start(maxDepth, () -> {
+            if (path != null) {
+                runFile(path);
+            } else {
+                runPrompt();
+            }
+        });
+    }
+
+    private static int parseDepth(String calls) {
+        try {
+            return Integer.parseInt(calls);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jfail [--vm] [--stats] [--no-jit] [--max-depth calls] [script]");
+        System.out.println("       jfail --compile script -o jar");
+    }
+
+    // Entry point of the jars written by --compile, which carry the Program
+    // as a resource.
+    public static void runEmbedded(String resource) throws IOException, InterruptedException {
+        Program program;
+        try (InputStream input = Fail.class.getResourceAsStream(resource)) {
+            if (input == null) throw new IOException("Missing program " + resource + ".");
+            program = Program.read(input);
         }
+
+        interpreter = new Interpreter(DEFAULT_MAX_DEPTH);
+        start(DEFAULT_MAX_DEPTH, () -> program.run(interpreter));
+        if (hadRuntimeError) System.exit(70);
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    // Each Fail call nests several Java calls, so run on a thread whose stack
+    // fits the depth limit instead of whatever the JVM defaults to, which
+    // overflows long before it. Only the pages actually used are committed.
+    private static void start(int maxDepth, Task task) throws IOException, InterruptedException {
+        IOException[] failure = new IOException[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        }, "fail", maxDepth * STACK_PER_CALL);
+        thread.start();
+        thread.join();
+        if (failure[0] != null) throw failure[0];
+    }
+
+    // Checks and compiles the script into a jar that runs it with java -jar.
+    private static void compile(String path, String jar) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        List<Stmt> statements = analyze(new String(bytes, Charset.defaultCharset()));
+        if (hadError) System.exit(65);
+
+        JarWriter.write(statements, jar);
     }
 
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        runScript(new String(bytes, Charset.defaultCharset()));
+    }
+
+    private static void runScript(String source) {
+        run(source);
+        if (printStats) printStats();
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
@@ -49,22 +174,41 @@ public class Fail {
 
             if (syntax instanceof List) {
                 List<Stmt> statements = (List<Stmt>)syntax;
-                Resolver resolver = new Resolver(interpreter);
+                Resolver resolver = new Resolver();
                 resolver.resolve(statements);
 
                 // Stop if there was a resolution error.
                 if (hadError) continue;
 
-                interpreter.interpret(statements);
+                statements = optimize(statements);
+
+                if (vm != null) {
+                    ObjFunction script = new Compiler(vm).compile(statements);
+                    if (hadError) continue;
+                    vm.interpret(script);
+                } else {
+                    interpreter.interpret(statements);
+                }
             } else if (syntax instanceof Expr) {
                 Expr expr = (Expr)syntax;
-                Resolver resolver = new Resolver(interpreter);
+                Resolver resolver = new Resolver();
                 resolver.resolve(expr);
 
                 // Stop if there was a resolution error.
                 if (hadError) continue;
 
-                String result = interpreter.interpret(expr);
+                expr = new Optimizer().optimize(expr);
+                new Resolver(false).resolve(expr);
+                new TypeInference().infer(expr);
+
+                String result;
+                if (vm != null) {
+                    ObjFunction script = new Compiler(vm).compileExpression(expr);
+                    if (hadError) continue;
+                    result = vm.interpret(script);
+                } else {
+                    result = interpreter.interpret(expr);
+                }
                 if (result != null) {
                     System.out.println("= " + result);
                 }
@@ -73,19 +217,18 @@ public class Fail {
     }
 
     private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens =  scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+        List<Stmt> statements = analyze(source);
+        if (statements == null) return;
 
-        // Stop if there was a syntax error.
-        if (hadError) return;
+        if (vm != null) {
+            ObjFunction script = new Compiler(vm).compile(statements);
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+            // Stop if the program does not fit the VM's limits.
+            if (hadError) return;
 
-        // Stop if there was a resolution error.
-        if (hadError) return;
+            vm.interpret(script);
+            return;
+        }
 
         interpreter.interpret(statements);
 
@@ -104,6 +247,36 @@ public class Fail {
 */
     }
 
+    // Returns the statements ready to run, or null if there was an error.
+    private static List<Stmt> analyze(String source) {
+        Scanner scanner = new Scanner(source);
+        List<Token> tokens =  scanner.scanTokens();
+        Parser parser = new Parser(tokens);
+        List<Stmt> statements = parser.parse();
+
+        // Stop if there was a syntax error.
+        if (hadError) return null;
+
+        Resolver resolver = new Resolver();
+        resolver.resolve(statements);
+
+        // Stop if there was a resolution error.
+        if (hadError) return null;
+
+        return optimize(statements);
+    }
+
+    private static List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new Optimizer().optimize(statements);
+        new Resolver(false).resolve(optimized);
+        new TypeInference().infer(optimized);
+        return optimized;
+    }
+
+    private static void printStats() {
+        System.err.println(stats);
+    }
+
     static void error(int line, String message) {
         reportError(line, "", message);
     }
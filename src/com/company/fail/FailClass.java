@@ -1,11 +1,17 @@
 package com.company.fail;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 
 class FailClass extends Instance implements Callable {
     final String name;
     private final Map<String, Function> methods;
+    private final Function initializer;
+    // Own and inherited methods, built once when the class is created.
+    private final Map<String, Function> methodTable;
     final FailClass superclass;
+    // Root of the shapes of this class's instances, so that a shape also
+    // tells which class an instance belongs to.
+    final Shape instanceShape = Shape.root();
 
     FailClass(FailClass metaclass, FailClass superclass, String name,
              Map<String, Function> methods) {
@@ -13,34 +19,54 @@ class FailClass extends Instance implements Callable {
         this.superclass = superclass;
         this.name = name;
         this.methods = methods;
+        this.initializer = methods.get("init");
+
+        methodTable = superclass == null ?
+                new HashMap<>() : new HashMap<>(superclass.methodTable);
+        methodTable.putAll(methods);
     }
 
-    Function findMethod(Instance instance, String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name).bind(instance);
-        }
+    Function findMethod(String name) {
+        return methodTable.get(name);
+    }
 
-        if (superclass != null) {
-            return superclass.findMethod(instance, name);
-        }
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        Instance instance = new Instance(this);
+        if (initializer != null) initializer.invoke(interpreter, instance, arguments);
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        Instance instance = new Instance(this);
+        if (initializer != null) initializer.invoke0(interpreter, instance);
+        return instance;
+    }
 
-        return null;
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Instance instance = new Instance(this);
+        if (initializer != null) initializer.invoke1(interpreter, instance, a);
+        return instance;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call2(Interpreter interpreter, Object a, Object b) {
         Instance instance = new Instance(this);
-        Function initializer = methods.get("init");
-        if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
-        }
+        if (initializer != null) initializer.invoke2(interpreter, instance, a, b);
+        return instance;
+    }
 
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Instance instance = new Instance(this);
+        if (initializer != null) initializer.invoke3(interpreter, instance, a, b, c);
         return instance;
     }
 
     @Override
     public int arity() {
-        Function initializer = methods.get("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
@@ -1,18 +1,24 @@
 package com.company.fail;
 
-import java.util.List;
-
 public class Function implements Callable {
     private final String name;
-    private final Expr.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Expr.Function declaration;
+    final Cell[] upvalues;
+    final boolean isInitializer;
+    // The bound "this" for methods, which the Resolver places in slot 0.
+    final Instance receiver;
+
+    Function(String name, Expr.Function declaration, Cell[] upvalues, boolean isInitializer) {
+        this(name, declaration, upvalues, isInitializer, null);
+    }
 
-    Function(String name, Expr.Function declaration, Environment closure, boolean isInitializer) {
+    private Function(String name, Expr.Function declaration, Cell[] upvalues,
+                     boolean isInitializer, Instance receiver) {
         this.name = name;
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
     }
 
     @Override
@@ -21,30 +27,65 @@ public class Function implements Callable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return invoke1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return invoke2(interpreter, receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return invoke3(interpreter, receiver, a, b, c);
+    }
+
+    // The invoke methods call a method on the given receiver without binding
+    // it first.
+    Object invoke(Interpreter interpreter, Instance receiver, Object[] arguments) {
+        return result(receiver, interpreter.executeFunction(
+                declaration, upvalues, receiver, arguments));
+    }
 
-        if (declaration.parameters != null) {
-            for (int i = 0; i < declaration.parameters.size(); i++) {
-                environment.define(declaration.parameters.get(i).lexeme,
-                        arguments.get(i));
-            }
-        }
+    Object invoke0(Interpreter interpreter, Instance receiver) {
+        return result(receiver, interpreter.executeFunction(
+                declaration, upvalues, receiver));
+    }
+
+    Object invoke1(Interpreter interpreter, Instance receiver, Object a) {
+        return result(receiver, interpreter.executeFunction(
+                declaration, upvalues, receiver, a));
+    }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
-        }
+    Object invoke2(Interpreter interpreter, Instance receiver, Object a, Object b) {
+        return result(receiver, interpreter.executeFunction(
+                declaration, upvalues, receiver, a, b));
+    }
+
+    Object invoke3(Interpreter interpreter, Instance receiver,
+                   Object a, Object b, Object c) {
+        return result(receiver, interpreter.executeFunction(
+                declaration, upvalues, receiver, a, b, c));
+    }
 
-        if (isInitializer) return closure.getAt(0, "this");
-        return null;
+    private Object result(Instance receiver, Object value) {
+        if (isInitializer) return receiver;
+        return value;
     }
 
     Function bind(Instance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new Function(name, declaration, environment, isInitializer);
+        return new Function(name, declaration, upvalues, isInitializer, instance);
     }
 
     public boolean isGetter() {
@@ -0,0 +1,153 @@
+package com.company.fail;
+
+import java.util.List;
+
+// Substitutes the bodies of small functions, methods and getters into the
+// call sites that run them often. Only bodies that just return a value are
+// taken, and only if that value calls nothing, assigns no variables and uses
+// none of an enclosing function's, so it cannot recurse and needs no frame:
+// the parameters and "this" are replaced by the site's arguments and object.
+// Those have to be reads of locals or constants that cannot fail, so reading
+// one once for each use instead of once for the call changes nothing. A site
+// keeps the function its body came from, and the Interpreter only uses the
+// body while the callee found there is still that function.
+class Inliner implements Expr.Visitor<Expr> {
+    // Calls of one function at a site before its body is substituted there.
+    static final int THRESHOLD = 100;
+
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    // What each slot of the function's frame is replaced with.
+    private final Expr[] slots;
+
+    private Inliner(Expr[] slots) {
+        this.slots = slots;
+    }
+
+    // Returns the body of function with receiver, if it is a method, and the
+    // arguments in place of its slots, or null if it cannot be inlined.
+    static Expr inline(Expr.Function function, Expr receiver, List<Expr> arguments) {
+        if (function.result == null || function.captures.length > 0) return null;
+        int parameters = function.parameters == null ? 0 : function.parameters.size();
+        if (arguments.size() != parameters) return null;
+
+        Expr[] slots = new Expr[(receiver == null ? 0 : 1) + parameters];
+        int slot = 0;
+        if (receiver != null) slots[slot++] = receiver;
+        for (Expr argument : arguments) slots[slot++] = argument;
+        for (Expr value : slots) {
+            if (!isSafeRead(value)) return null;
+        }
+
+        try {
+            return function.result.accept(new Inliner(slots));
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    private static boolean isSafeRead(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+        if (expr instanceof Expr.Grouping) return isSafeRead(((Expr.Grouping) expr).expression);
+        if (!(expr instanceof Expr.Variable)) return false;
+
+        // Globals may be undefined, and locals declared without a value may
+        // not have one yet. Parameters have no declaration and always do.
+        Expr.Variable variable = (Expr.Variable) expr;
+        return !variable.isGlobal &&
+                (variable.declaration == null || variable.declaration.initializer != null);
+    }
+
+    private Expr copy(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Expr slot(int slot) {
+        if (slot >= slots.length) throw new Unsupported();
+        return slots[slot];
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        return new Expr.Binary(copy(expr.left), expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitFunctionExpr(Expr.Function expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        if (expr.isUpvalue) throw new Unsupported();
+        return slot(expr.slot);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(copy(expr.object), expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(copy(expr.object), expr.name, copy(expr.value));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return new Expr.Grouping(copy(expr.expression));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        return new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        TokenType operator = expr.operator.type;
+        if (operator == TokenType.PLUS_PLUS || operator == TokenType.MINUS_MINUS) {
+            throw new Unsupported();
+        }
+        return new Expr.Unary(expr.operator, copy(expr.right), expr.postfix);
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        return new Expr.Ternary(copy(expr.expr), copy(expr.thenBranch), copy(expr.elseBranch));
+    }
+
+    // Globals read the same cell from any frame, so they are shared.
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if (expr.isGlobal) return expr;
+        if (expr.isUpvalue) throw new Unsupported();
+        return slot(expr.slot);
+    }
+}
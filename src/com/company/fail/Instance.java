@@ -1,33 +1,65 @@
 package com.company.fail;
-import java.util.HashMap;
-import java.util.Map;
+
+import java.util.Arrays;
 
 class Instance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
     private FailClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] fields = NO_FIELDS;
 
     Instance(FailClass klass) {
         this.klass = klass;
+        this.shape = klass == null ? Shape.root() : klass.instanceShape;
+    }
+
+    FailClass klass() {
+        return klass;
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
+        int index = shape.indexOf(name.lexeme);
+        if (index != -1) return fields[index];
 
-        Function method = klass.findMethod(this, name.lexeme);
-        if (method != null) return method;
+        Function method = klass.findMethod(name.lexeme);
+        if (method != null) return method.bind(this);
 
         throw new RuntimeError(name,
                 "Undefined property '" + name.lexeme + "'.");
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int index = shape.indexOf(name.lexeme);
+        if (index == -1) {
+            index = shape.size();
+            reshape(shape.withField(name.lexeme));
+        }
+        fields[index] = value;
+    }
+
+    Shape shape() {
+        return shape;
+    }
+
+    Object field(int index) {
+        return fields[index];
+    }
+
+    void setField(int index, Object value) {
+        fields[index] = value;
+    }
+
+    // Moves to a shape with more fields.
+    void reshape(Shape shape) {
+        this.shape = shape;
+        if (shape.size() > fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(shape.size(), fields.length * 2));
+        }
     }
 
     @Override
     public String toString() {
         return klass.name + " instance";
     }
-}
\ No newline at end of file
+}
@@ -2,48 +2,61 @@ package com.company.fail;
 
 import java.util.*;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    private Environment environment = new Environment();
-    private final Map<Expr, Integer> locals = new HashMap<>();
-    private static Object uninitialized = new Object();
-
-    Interpreter() {
-        environment.define("clock", new Callable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter,
-                               List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
-        });
-        environment.define("len", new Callable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    // Each global name is bound to one cell for the life of the interpreter,
+    // so variable nodes can cache it. Cells of names referenced before they
+    // are defined hold the undefined marker.
+    private final Map<String, Cell> globals = new HashMap<>();
+    // Locals of every active call live in one stack, each call's frame being
+    // the slots from frameBase up to stackTop. frameBase is -1 while running
+    // top-level code. Variables captured by closures hold a Cell instead.
+    private Object[] stack = new Object[1024];
+    private int frameBase = -1;
+    private int stackTop = 0;
+    // Cells captured by the running function.
+    private Cell[] upvalues = null;
+    // Value of the return statement that last completed with RETURN.
+    private Object returnValue = null;
+    // Set instead of returnValue when the return statement ended in a call
+    // to a Fail function. runFrame() then runs it in place of the returning
+    // call, with the arguments taken from the stack at tailArguments.
+    private Function tailCallee = null;
+    private Instance tailReceiver = null;
+    private int tailArguments = 0;
+    // Set by evaluateNumber() when the value turned out not to be a number,
+    // which is then left in nonNumber for the caller.
+    private boolean isNonNumber = false;
+    private Object nonNumber = null;
+    // Number of calls being evaluated, which may not exceed maxDepth.
+    private int depth = 0;
+    // Number of getters run so far, which invalidates invariant values.
+    private int getterCalls = 0;
+    private final int maxDepth;
+    // Compiles hot functions, or null to leave everything to the tree.
+    private final Jit jit;
+    // Function whose frame is running, which loop iterations count towards.
+    private Expr.Function running = null;
+    // What --stats reports, or null if it is not counted.
+    private Stats stats = null;
+    static Object uninitialized = new Object();
+    private static Object undefined = new Object();
+
+    Interpreter(int maxDepth) {
+        this(maxDepth, true);
+    }
 
-            @Override
-            public Object call(Interpreter interpreter,
-                               List<Object> arguments) {
-                return stringify(arguments.get(0)).length();
-            }
-        });
-        environment.define("str", new Callable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
+    Interpreter(int maxDepth, boolean compile) {
+        this.maxDepth = maxDepth;
+        this.jit = compile ? new Jit() : null;
+        for (Map.Entry<String, Callable> entry : Natives.all().entrySet()) {
+            globalCell(entry.getKey()).value = entry.getValue();
+        }
+    }
 
-            @Override
-            public Object call(Interpreter interpreter,
-                               List<Object> arguments) {
-                return stringify(arguments.get(0));
-            }
-        });
+    // Starts counting what --stats reports.
+    Stats countStats() {
+        stats = new Stats();
+        return stats;
     }
 
     String interpret(Expr expression) {
@@ -70,37 +83,158 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Completion executeStatements(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            Completion completion = execute(statements.get(i));
+            if (completion != null) return completion;
+        }
+        return null;
+    }
+
+    Object executeFunction(Expr.Function function, Cell[] upvalues,
+                           Instance receiver, Object[] arguments) {
+        int base = pushFrame(function.size);
+        int slot = receiver == null ? base : base + 1;
+        System.arraycopy(arguments, 0, stack, slot, arguments.length);
+        return runFrame(function, upvalues, receiver, base);
+    }
+
+    Object executeFunction(Expr.Function function, Cell[] upvalues,
+                           Instance receiver) {
+        int base = pushFrame(function.size);
+        return runFrame(function, upvalues, receiver, base);
+    }
+
+    Object executeFunction(Expr.Function function, Cell[] upvalues,
+                           Instance receiver, Object a) {
+        int base = pushFrame(function.size);
+        int slot = receiver == null ? base : base + 1;
+        stack[slot] = a;
+        return runFrame(function, upvalues, receiver, base);
+    }
+
+    Object executeFunction(Expr.Function function, Cell[] upvalues,
+                           Instance receiver, Object a, Object b) {
+        int base = pushFrame(function.size);
+        int slot = receiver == null ? base : base + 1;
+        stack[slot] = a;
+        stack[slot + 1] = b;
+        return runFrame(function, upvalues, receiver, base);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    Object executeFunction(Expr.Function function, Cell[] upvalues,
+                           Instance receiver, Object a, Object b, Object c) {
+        int base = pushFrame(function.size);
+        int slot = receiver == null ? base : base + 1;
+        stack[slot] = a;
+        stack[slot + 1] = b;
+        stack[slot + 2] = c;
+        return runFrame(function, upvalues, receiver, base);
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
+    // Runs the function in the frame at base, whose parameters have been
+    // filled in.
+    private Object runFrame(Expr.Function function, Cell[] upvalues,
+                            Instance receiver, int base) {
+        int previousBase = frameBase;
+        Cell[] previousUpvalues = this.upvalues;
+        Expr.Function previousRunning = running;
         try {
-            this.environment = environment;
+            frameBase = base;
 
-            for (Stmt statement : statements) {
-                execute(statement);
+            for (;;) {
+                if (receiver != null) stack[base] = receiver;
+                for (int boxed : function.boxedParameters) {
+                    stack[base + boxed] = new Cell(stack[base + boxed]);
+                }
+                this.upvalues = upvalues;
+                running = function;
+
+                if (function.compiled == null && jit != null &&
+                        ++function.hotness >= Jit.THRESHOLD) {
+                    function.compiled = jit.compile(this, function, receiver != null);
+                    // Never try again.
+                    if (function.compiled == null) function.hotness = Integer.MIN_VALUE;
+                }
+
+                if (function.compiled != null) {
+                    Object value = function.compiled.run(stack, base);
+                    if (tailCallee == null) return value;
+                } else {
+                    // A body that only returns a value is run as that value.
+                    if (function.result != null) return evaluate(function.result);
+
+                    if (executeStatements(function.body) != Completion.RETURN) {
+                        return null;
+                    }
+
+                    if (tailCallee == null) {
+                        Object value = returnValue;
+                        returnValue = null;
+                        return value;
+                    }
+                }
+
+                // Reuse this frame for the call in tail position.
+                Function callee = tailCallee;
+                tailCallee = null;
+                function = callee.declaration;
+                upvalues = callee.upvalues;
+                receiver = tailReceiver;
+                tailReceiver = null;
+
+                int count = stackTop - tailArguments;
+                ensureStack(base + function.size);
+                System.arraycopy(stack, tailArguments, stack,
+                        receiver == null ? base : base + 1, count);
+                stackTop = base + function.size;
             }
         } finally {
-            this.environment = previous;
+            frameBase = previousBase;
+            this.upvalues = previousUpvalues;
+            running = previousRunning;
+            stackTop = base;
+        }
+    }
+
+    private int pushFrame(int size) {
+        int base = stackTop;
+        ensureStack(base + size);
+        stackTop = base + size;
+        return base;
+    }
+
+    private void ensureStack(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size));
         }
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.flattened) return executeStatements(stmt.statements);
+
+        // Only blocks outside of any function get a frame of their own.
+        int base = pushFrame(stmt.size);
+        try {
+            frameBase = base;
+            return executeStatements(stmt.statements);
+        } finally {
+            frameBase = -1;
+            stackTop = base;
+        }
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
-        environment.define(stmt.name.lexeme, null);
+    public Completion visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.slot, stmt.isBoxed);
+        define(stmt.name, stmt.slot, stmt.isBoxed, null);
 
+        int enclosingBase = frameBase;
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -108,13 +242,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.name,
                         "Superclass must be a class.");
             }
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            // Outside of a function "super" needs a frame of its own.
+            if (frameBase < 0) frameBase = pushFrame(1);
+            stack[frameBase + stmt.superSlot] = new Cell(superclass);
         }
 
         Map<String, Function> classMethods = new HashMap<>();
         for (Stmt.Function method : stmt.classMethods) {
-            Function function = new Function(method.name.lexeme, method.function, environment, false);
+            Function function = new Function(method.name.lexeme, method.function,
+                    capture(method.function), false);
             classMethods.put(method.name.lexeme, function);
         }
 
@@ -123,134 +259,551 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         Map<String, Function> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            Function function = new Function(method.name.lexeme, method.function, environment,
-                    method.name.lexeme.equals("init"));
+            Function function = new Function(method.name.lexeme, method.function,
+                    capture(method.function), method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
 
         FailClass klass = new FailClass(metaclass, (FailClass) superclass, stmt.name.lexeme, methods);
 
-        if (superclass != null) {
-            environment = environment.enclosing;
+        if (frameBase != enclosingBase) {
+            stackTop = frameBase;
+            frameBase = enclosingBase;
         }
 
-        environment.assign(stmt.name, klass);
+        define(stmt.name, stmt.slot, stmt.isBoxed, klass);
         return null;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
         return null;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        Function function = new Function(stmt.name.lexeme, stmt.function, environment, false);
-        environment.define(stmt.name.lexeme, function);
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.slot, stmt.isBoxed);
+        Function function = new Function(stmt.name.lexeme, stmt.function,
+                capture(stmt.function), false);
+        define(stmt.name, stmt.slot, stmt.isBoxed, function);
         return null;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
-        Object condition = evaluate(stmt.condition);
-
-        if (isTruthy(condition)) {
-            execute(stmt.thenBranch);
+    public Completion visitIfStmt(Stmt.If stmt) {
+        if (test(stmt.condition)) {
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
         return null;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
         return null;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.isTailCall) return tailReturn(stmt.value);
+
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    // Returns the value of an expression that may end in a call, making that
+    // call in tail position if it does.
+    private Completion tailReturn(Expr expr) {
+        if (expr instanceof Expr.Call) return tailCall((Expr.Call) expr);
+        if (expr instanceof Expr.Grouping) {
+            return tailReturn(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Ternary) {
+            Expr.Ternary ternary = (Expr.Ternary) expr;
+            boolean isTrue = isTruthy(evaluate(ternary.expr));
+            return tailReturn(isTrue ? ternary.thenBranch : ternary.elseBranch);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            Object left = evaluate(logical.left);
+            if (isTruthy(left) == (logical.operator.type == TokenType.OR)) {
+                returnValue = left;
+                return Completion.RETURN;
+            }
+            return tailReturn(logical.right);
+        }
+
+        returnValue = evaluate(expr);
+        return Completion.RETURN;
+    }
+
+    // Evaluates the callee and arguments of a call in tail position, leaving
+    // the arguments on top of the stack. Calls to Fail functions are then left
+    // for runFrame() to run without a frame of their own; anything else is
+    // called here.
+    private Completion tailCall(Expr.Call expr) {
+        Object callee = null;
+        Function function = null;
+        Instance receiver = null;
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            Object object = evaluate(get.object);
+            function = method(get, object);
+            if (function != null) {
+                receiver = (Instance) object;
+            } else {
+                callee = getProperty(get, object);
+            }
+        } else {
+            callee = evaluate(expr.callee);
+        }
+
+        int arguments = stackTop;
+        for (Expr argument : expr.arguments) {
+            Object value = evaluate(argument);
+            ensureStack(stackTop + 1);
+            stack[stackTop++] = value;
+        }
+
+        return tailCall(expr, callee, function, receiver, arguments);
+    }
+
+    // Finishes a call in tail position to either the method function of
+    // receiver or callee, with the arguments on the stack from arguments up.
+    private Completion tailCall(Expr.Call expr, Object callee, Function function,
+                                Instance receiver, int arguments) {
+        Callable target;
+        if (function != null) {
+            checkArity(expr, function);
+            target = function;
+        } else {
+            target = checkCallee(expr, callee);
+            if (target instanceof Function) {
+                function = (Function) target;
+                receiver = function.receiver;
+            }
+        }
+
+        // Initializers return their receiver rather than the call's value,
+        // so they are left to Function to call.
+        if (function == null || function.isInitializer) {
+            if (function != null) target = function.bind(receiver);
+            int count = stackTop - arguments;
+            stackTop = arguments;
+            switch (count) {
+                case 0: returnValue = target.call0(this); break;
+                case 1: returnValue = target.call1(this, stack[arguments]); break;
+                case 2: returnValue = target.call2(this, stack[arguments],
+                        stack[arguments + 1]); break;
+                case 3: returnValue = target.call3(this, stack[arguments],
+                        stack[arguments + 1], stack[arguments + 2]); break;
+                default: returnValue = target.call(this,
+                        Arrays.copyOfRange(stack, arguments, arguments + count));
+            }
+            return Completion.RETURN;
+        }
+
+        tailCallee = function;
+        tailReceiver = receiver;
+        tailArguments = arguments;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        declare(stmt.slot, stmt.isBoxed);
         Object value = uninitialized;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.name, stmt.slot, stmt.isBoxed, value);
         return null;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
-            try {
-                execute(stmt.body);
-            } catch (BreakJump breakJump) {
-                break;
-            } catch (ContinueJump continueJump) {
-                //Do nothing.
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        if (stmt.invariants != null) {
+            for (Invariant invariant : stmt.invariants) {
+                invariant.frame = Invariant.NONE;
             }
         }
+
+        if (stmt.isDoWhile) {
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) return null;
+            if (completion == Completion.RETURN) return completion;
+        }
+
+        while (test(stmt.condition)) {
+            if (running != null) running.hotness++;
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+        }
         return null;
     }
 
+    // Evaluates the condition of an if or while statement, running comparisons
+    // of variables without going through visitBinaryExpr().
+    private boolean test(Expr condition) {
+        if (condition instanceof Expr.Binary &&
+                ((Expr.Binary) condition).superinstruction != null) {
+            Boolean value = compare((Expr.Binary) condition);
+            if (value != null) return value;
+        }
+        return isTruthy(evaluate(condition));
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
-        Object value = evaluate(expr.value);
-        switch (expr.equals.type) {
-            case EQUAL:
-                break;
-            case PLUS_EQUAL: {
-                Object current = environment.get(expr.name);
-                checkNumberOperands(expr.equals, current, value);
-                value = (double) current + (double) value;
-                break;
-            }
-            case MINUS_EQUAL: {
-                Object current = environment.get(expr.name);
-                checkNumberOperands(expr.equals, current, value);
-                value = (double) current - (double) value;
-                break;
-            }
-            case STAR_EQUAL: {
-                Object current = environment.get(expr.name);
-                checkNumberOperands(expr.equals, current, value);
-                value = (double) current * (double) value;
-                break;
+        if (expr.superinstruction == Superinstruction.INCREMENT) {
+            Object current = peek(expr);
+            if (current instanceof Double) {
+                Object value = (double) current + expr.step;
+                if (expr.isGlobal) {
+                    expr.cell.value = value;
+                } else {
+                    writeLocal(expr.slot, expr.isUpvalue, expr.isBoxed, value);
+                }
+                return value;
             }
-            case SLASH_EQUAL: {
-                Object current = environment.get(expr.name);
-                checkNumberOperands(expr.equals, current, value);
-                value = (double) current / (double) value;
-                break;
+        }
+
+        Object value;
+        if (expr.equals.type == TokenType.EQUAL) {
+            value = evaluate(expr.value);
+        } else {
+            double operand = evaluateNumber(expr.value);
+            boolean isNumber = !isNonNumber;
+            if (!isNumber) takeNonNumber();
+
+            Object current;
+            if (expr.isGlobal) {
+                if (expr.cell == null) expr.cell = globalCell(expr.name.lexeme);
+                current = readGlobal(expr.name, expr.cell);
+            } else {
+                current = readLocal(expr.slot, expr.isUpvalue, expr.isBoxed);
             }
-            case STAR_STAR_EQUAL: {
-                Object current = environment.get(expr.name);
-                checkNumberOperands(expr.equals, current, value);
-                value = Math.pow((double) current, (double) value);
-                break;
+            if (!isNumber || !(current instanceof Double)) {
+                throw new RuntimeError(expr.equals, "Operands must be numbers.");
             }
+
+            value = compound(expr.equals.type, (double) current, operand);
         }
 
-        Integer distance = locals.get(expr);
-        environment.ancestor(distance).assign(expr.name, value);
+        if (expr.isGlobal) {
+            if (expr.cell == null) expr.cell = globalCell(expr.name.lexeme);
+            assignGlobal(expr.name, expr.cell, value);
+        } else {
+            writeLocal(expr.slot, expr.isUpvalue, expr.isBoxed, value);
+        }
         return value;
     }
 
+    private static double compound(TokenType operator, double current, double operand) {
+        switch (operator) {
+            case PLUS_EQUAL: return current + operand;
+            case MINUS_EQUAL: return current - operand;
+            case STAR_EQUAL: return current * operand;
+            case SLASH_EQUAL: return current / operand;
+            case STAR_STAR_EQUAL: return power(current, operand);
+        }
+
+        // Unreachable.
+        return 0;
+    }
+
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.superinstruction != null) {
+            Boolean value = compare(expr);
+            if (value != null) return value;
+        }
+
+        Invariant invariant = expr.invariant;
+        if (invariant == null) return evaluateBinary(expr);
+
+        if (isValid(invariant)) return invariant.value;
+        int previousGetterCalls = getterCalls;
+        Object value = evaluateBinary(expr);
+        remember(invariant, value, previousGetterCalls);
+        return value;
+    }
+
+    private boolean isValid(Invariant invariant) {
+        return invariant.frame == frameBase && invariant.getterCalls == getterCalls;
+    }
+
+    // Values that took running a getter are not remembered, as the getter has
+    // to run again next time.
+    private void remember(Invariant invariant, Object value, int previousGetterCalls) {
+        if (getterCalls != previousGetterCalls) return;
+        invariant.frame = frameBase;
+        invariant.getterCalls = getterCalls;
+        invariant.value = value;
+    }
+
+    // Returns null when an operand is not a number, leaving the comparison to
+    // the general case.
+    private Boolean compare(Expr.Binary expr) {
+        Object left = peek((Expr.Variable) expr.left);
+        if (!(left instanceof Double)) return null;
+
+        Object right;
+        if (expr.superinstruction == Superinstruction.COMPARE_CONSTANT) {
+            right = ((Expr.Literal) expr.right).value;
+        } else {
+            right = peek((Expr.Variable) expr.right);
+            if (!(right instanceof Double)) return null;
+        }
+
+        double a = (double) left;
+        double b = (double) right;
+        switch (expr.operator.type) {
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+            case EQUAL_EQUAL:
+                return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+            case BANG_EQUAL:
+                return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    private Object evaluateBinary(Expr.Binary expr) {
+        if (expr.operands != null) return typed(expr);
+
+        if (expr.specialization == null) {
+            Object left = evaluate(expr.left);
+            Object right = evaluate(expr.right);
+            Object value = binary(expr, left, right);
+            expr.specialization = specialize(expr.operator.type, left, right);
+            return value;
+        }
+
+        switch (expr.specialization) {
+            case NUMBERS: {
+                double left = evaluateNumber(expr.left);
+                if (isNonNumber) {
+                    expr.specialization = Specialization.GENERIC;
+                    Object value = takeNonNumber();
+                    return binary(expr, value, evaluate(expr.right));
+                }
+
+                double right = evaluateNumber(expr.right);
+                if (isNonNumber) {
+                    expr.specialization = Specialization.GENERIC;
+                    return binary(expr, left, takeNonNumber());
+                }
+
+                switch (expr.operator.type) {
+                    case GREATER: return left > right;
+                    case GREATER_EQUAL: return left >= right;
+                    case LESS: return left < right;
+                    case LESS_EQUAL: return left <= right;
+                    // Same as Double.equals(), which isEqual() relies on.
+                    case EQUAL_EQUAL:
+                        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+                    case BANG_EQUAL:
+                        return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+                }
+                return arithmetic(expr.operator.type, left, right);
+            }
+            case STRINGS: {
+                Object left = evaluate(expr.left);
+                Object right = evaluate(expr.right);
+                if (left instanceof String && right instanceof String) {
+                    switch (expr.operator.type) {
+                        case PLUS: return (String) left + (String) right;
+                        case EQUAL_EQUAL: return left.equals(right);
+                        case BANG_EQUAL: return !left.equals(right);
+                    }
+                }
+
+                expr.specialization = Specialization.GENERIC;
+                return binary(expr, left, right);
+            }
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        return binary(expr, left, right);
+    }
+
+    private static Specialization specialize(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return Specialization.STRINGS;
+                }
+                if (left instanceof Double && right instanceof Double) {
+                    return Specialization.NUMBERS;
+                }
+                break;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case MINUS:
+            case SLASH:
+            case STAR:
+            case STAR_STAR:
+                if (left instanceof Double && right instanceof Double) {
+                    return Specialization.NUMBERS;
+                }
+                break;
+        }
+        return Specialization.GENERIC;
+    }
+
+    // Runs an operation TypeInference has proven the operand types of.
+    private Object typed(Expr.Binary expr) {
+        if (expr.operands == Type.STRING) {
+            String left = (String) evaluate(expr.left);
+            String right = (String) evaluate(expr.right);
+            switch (expr.operator.type) {
+                case PLUS: return left + right;
+                case EQUAL_EQUAL: return left.equals(right);
+                case BANG_EQUAL: return !left.equals(right);
+            }
+        }
+
+        double left = number(expr.left);
+        double right = number(expr.right);
+        switch (expr.operator.type) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case EQUAL_EQUAL:
+                return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            case BANG_EQUAL:
+                return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+        }
+        return arithmetic(expr.operator.type, left, right);
+    }
+
+    // Evaluates an expression TypeInference has proven to be a number.
+    private double number(Expr expr) {
+        if (expr instanceof Expr.Literal) return (double) ((Expr.Literal) expr).value;
+        if (expr instanceof Expr.Variable && ((Expr.Variable) expr).type == Type.NUMBER) {
+            return (double) stack[frameBase + ((Expr.Variable) expr).slot];
+        }
+        if (isTypedArithmetic(expr) && ((Expr.Binary) expr).invariant == null) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return arithmetic(binary.operator.type, number(binary.left), number(binary.right));
+        }
+        return (double) evaluate(expr);
+    }
+
+    private static boolean isTypedArithmetic(Expr expr) {
+        if (!(expr instanceof Expr.Binary)) return false;
+        Expr.Binary binary = (Expr.Binary) expr;
+        if (binary.operands != Type.NUMBER) return false;
+        switch (binary.operator.type) {
+            case MINUS:
+            case PLUS:
+            case SLASH:
+            case STAR:
+            case STAR_STAR:
+                return true;
+        }
+        return false;
+    }
+
+    // Evaluates an expression whose value is about to be used as a number.
+    // Nested arithmetic specialized on numbers is computed without boxing;
+    // anything else is evaluated as usual and, if it is not a number, handed
+    // back through nonNumber so the caller can report it or fall back to the
+    // general case.
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            if (value instanceof Double) return (double) value;
+        } else if (expr instanceof Expr.Variable && ((Expr.Variable) expr).type == Type.NUMBER ||
+                isTypedArithmetic(expr)) {
+            return number(expr);
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Binary &&
+                ((Expr.Binary) expr).specialization == Specialization.NUMBERS &&
+                ((Expr.Binary) expr).invariant == null) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case PLUS:
+                case SLASH:
+                case STAR:
+                case STAR_STAR: {
+                    double left = evaluateNumber(binary.left);
+                    if (isNonNumber) {
+                        binary.specialization = Specialization.GENERIC;
+                        Object value = takeNonNumber();
+                        return asNumber(binary(binary, value, evaluate(binary.right)));
+                    }
+
+                    double right = evaluateNumber(binary.right);
+                    if (isNonNumber) {
+                        binary.specialization = Specialization.GENERIC;
+                        return asNumber(binary(binary, left, takeNonNumber()));
+                    }
+
+                    return arithmetic(binary.operator.type, left, right);
+                }
+            }
+        } else if (expr instanceof Expr.Unary &&
+                ((Expr.Unary) expr).operator.type == TokenType.MINUS) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            double value = evaluateNumber(unary.right);
+            if (isNonNumber) return asNumber(negate(unary.operator, takeNonNumber()));
+            return -value;
+        }
 
+        return asNumber(evaluate(expr));
+    }
+
+    private double asNumber(Object value) {
+        if (value instanceof Double) return (double) value;
+        isNonNumber = true;
+        nonNumber = value;
+        return 0;
+    }
+
+    private Object takeNonNumber() {
+        Object value = nonNumber;
+        isNonNumber = false;
+        nonNumber = null;
+        return value;
+    }
+
+    private double arithmetic(TokenType operator, double left, double right) {
+        switch (operator) {
+            case MINUS: return left - right;
+            case PLUS: return left + right;
+            case SLASH: return left / right;
+            case STAR: return left * right;
+            case STAR_STAR: return power(left, right);
+        }
+
+        // Unreachable.
+        return 0;
+    }
+
+    Object binary(Expr.Binary expr, Object left, Object right) {
         switch (expr.operator.type) {
             case GREATER:
                 checkNumberOperands(expr.operator, left, right);
@@ -305,7 +858,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return (double) left * (double) right;
             case STAR_STAR:
                 checkNumberOperands(expr.operator, left, right);
-                return Math.pow((double) left, (double) right);
+                return power((double) left, (double) right);
             case COMMA:
                 return right;
         }
@@ -316,12 +869,110 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        if (depth == maxDepth) throw new RuntimeError(expr.paren, "Stack overflow.");
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        depth++;
+        try {
+            if (expr.callee instanceof Expr.Get) return invoke(expr, (Expr.Get) expr.callee);
+            return call(expr, evaluate(expr.callee));
+        } catch (StackOverflowError error) {
+            // The Java stack ran out before the depth limit was reached.
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            depth--;
         }
+    }
+
+    // Calls of the form object.method(...) go straight to the method with the
+    // object as receiver, without creating a bound Function.
+    private Object invoke(Expr.Call expr, Expr.Get get) {
+        Object object = evaluate(get.object);
+        Function method = method(get, object);
+        if (method == null) return call(expr, getProperty(get, object));
+
+        Instance instance = (Instance) object;
+        if (inline(expr, method, get.object)) return evaluate(expr.inlined);
+
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                checkArity(expr, method);
+                return method.invoke0(this, instance);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                checkArity(expr, method);
+                return method.invoke1(this, instance, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                checkArity(expr, method);
+                return method.invoke2(this, instance, a, b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                checkArity(expr, method);
+                return method.invoke3(this, instance, a, b, c);
+            }
+            default: {
+                Object[] values = evaluateArguments(expr);
+                checkArity(expr, method);
+                return method.invoke(this, instance, values);
+            }
+        }
+    }
+
+    private Object[] evaluateArguments(Expr.Call expr) {
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expr.arguments.get(i));
+        }
+        return arguments;
+    }
+
+    // Calls with up to three arguments keep them in locals and use the
+    // matching fixed-arity entry point.
+    private Object call(Expr.Call expr, Object callee) {
+        if (callee instanceof Function && ((Function) callee).receiver == null &&
+                inline(expr, (Function) callee, null)) {
+            return evaluate(expr.inlined);
+        }
+
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                return checkCallee(expr, callee).call0(this);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                return checkCallee(expr, callee).call1(this, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return checkCallee(expr, callee).call2(this, a, b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                return checkCallee(expr, callee).call3(this, a, b, c);
+            }
+            default: {
+                Object[] values = evaluateArguments(expr);
+                return checkCallee(expr, callee).call(this, values);
+            }
+        }
+    }
+
+    private Callable checkCallee(Expr.Call expr, Object callee) {
+        if (expr.cache == null) expr.cache = new CallCache();
+        if (expr.cache.contains(callee)) {
+            if (stats != null) stats.callHits++;
+            return (Callable) callee;
+        }
+        if (stats != null) stats.callMisses++;
 
         if (!(callee instanceof Callable)) {
             throw new RuntimeError(expr.paren,
@@ -329,23 +980,50 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Callable function = (Callable)callee;
-        if (arguments.size() != function.arity()) {
+        checkArity(expr, function);
+        expr.cache.add(function);
+        return function;
+    }
+
+    private void checkArity(Expr.Call expr, Callable function) {
+        if (expr.arguments.size() != function.arity()) {
             throw new RuntimeError(expr.paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+                    expr.arguments.size() + ".");
         }
-        return function.call(this, arguments);
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        Invariant invariant = expr.invariant;
+        if (invariant == null) return getProperty(expr, evaluate(expr.object), true);
+
+        if (isValid(invariant)) return invariant.value;
+        int previousGetterCalls = getterCalls;
+        Object value = getProperty(expr, evaluate(expr.object), true);
+        // Methods are bound anew each time.
+        if (!(value instanceof Function)) remember(invariant, value, previousGetterCalls);
+        return value;
+    }
 
+    Object getProperty(Expr.Get expr, Object object) {
+        return getProperty(expr, object, false);
+    }
+
+    // Getters can only be inlined where the object is evaluated in the tree,
+    // as the inlined body reads it again from the frame.
+    private Object getProperty(Expr.Get expr, Object object, boolean canInline) {
         if (object instanceof Instance) {
-            Object result = ((Instance) object).get(expr.name);
+            if (expr.cache == null) expr.cache = new PropertyCache();
+            Object result = expr.cache.get((Instance) object, expr.name);
             if (result instanceof Function &&
                     ((Function) result).isGetter()) {
-                result = ((Function) result).call(this, null);
+                Function getter = (Function) result;
+                if (canInline && inline(expr, getter)) {
+                    getterCalls++;
+                    return evaluate(expr.inlined);
+                }
+                result = callGetter(expr, getter);
             }
 
             return result;
@@ -355,6 +1033,46 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 "Only instances have properties.");
     }
 
+    // Counts a call of function at the site, and returns whether the body
+    // the Inliner substituted there came from it.
+    private boolean inline(Expr.Call expr, Function function, Expr receiver) {
+        if (expr.inlined == null && ++expr.calls == Inliner.THRESHOLD &&
+                !function.isInitializer) {
+            expr.inlined = Inliner.inline(function.declaration, receiver, expr.arguments);
+            expr.inlinedFunction = function.declaration;
+        }
+        return isInlined(expr.inlined, expr.inlinedFunction, function);
+    }
+
+    private boolean inline(Expr.Get expr, Function getter) {
+        if (expr.inlined == null && ++expr.calls == Inliner.THRESHOLD) {
+            expr.inlined = Inliner.inline(getter.declaration, expr.object,
+                    Collections.emptyList());
+            expr.inlinedFunction = getter.declaration;
+        }
+        return isInlined(expr.inlined, expr.inlinedFunction, getter);
+    }
+
+    private boolean isInlined(Expr inlined, Expr.Function declaration, Function function) {
+        if (inlined == null || declaration != function.declaration) return false;
+        if (stats != null) stats.inlined++;
+        return true;
+    }
+
+    private Object callGetter(Expr.Get expr, Function getter) {
+        if (depth == maxDepth) throw new RuntimeError(expr.name, "Stack overflow.");
+
+        depth++;
+        getterCalls++;
+        try {
+            return getter.call0(this);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.name, "Stack overflow.");
+        } finally {
+            depth--;
+        }
+    }
+
     @Override
     public Object visitSetExpr(Expr.Set expr) {
         Object object = evaluate(expr.object);
@@ -364,38 +1082,33 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((Instance)object).set(expr.name, value);
+        if (expr.cache == null) expr.cache = new PropertyCache();
+        expr.cache.set((Instance) object, expr.name, value);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        FailClass superclass = (FailClass) environment.getAt(
-                distance, "super");
-
-        // "this" is always one level nearer than "super"'s environment.
-        Instance object = (Instance)environment.getAt(
-                distance - 1, "this");
+        FailClass superclass = (FailClass) upvalues[expr.slot].value;
+        Instance object = (Instance) evaluate(expr.receiver);
 
-        Function method = superclass.findMethod(
-                object, expr.method.lexeme);
+        Function method = superclass.findMethod(expr.method.lexeme);
 
         if (method == null) {
             throw new RuntimeError(expr.method,
                     "Undefined property '" + expr.method.lexeme + "'.");
         }
 
-        return method;
+        return method.bind(object);
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return readLocal(expr.slot, expr.isUpvalue, expr.isBoxed);
     }
 
     public Object visitFunctionExpr(Expr.Function function) {
-        return new Function(null, function, environment, false);
+        return new Function(null, function, capture(function), false);
     }
 
     @Override
@@ -422,28 +1135,40 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakJump();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitContinueStmt(Stmt.Continue stmt) {
-        throw new ContinueJump();
+    public Completion visitContinueStmt(Stmt.Continue stmt) {
+        return Completion.CONTINUE;
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.superinstruction == Superinstruction.INCREMENT) {
+            Expr.Variable variable = (Expr.Variable) expr.right;
+            Object current = peek(variable);
+            if (current instanceof Double) {
+                double value = (double) current;
+                double result = expr.operator.type == TokenType.PLUS_PLUS ?
+                        value + 1 : value - 1;
+                if (variable.isGlobal) {
+                    variable.cell.value = result;
+                } else {
+                    writeLocal(variable.slot, variable.isUpvalue, variable.isBoxed, result);
+                }
+                return expr.postfix ? value : result;
+            }
+        }
+
         Object right = evaluate(expr.right);
 
         switch (expr.operator.type) {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                if("muffin".equals(stringify(right))) {
-                    throw new RuntimeError(expr.operator, "I don't know, man, can you negate a muffin?");
-                }
-                checkNumberOperand(expr.operator, right);
-                return -(double) right;
+                return negate(expr.operator, right);
             case PLUS_PLUS: {
                 if (!(expr.right instanceof Expr.Variable))
                     throw new RuntimeError(expr.operator,
@@ -452,7 +1177,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 checkNumberOperand(expr.operator, right);
                 double value = (double) right;
                 Expr.Variable variable = (Expr.Variable) expr.right;
-                environment.assign(variable.name, value + 1);
+                assignVariable(variable, value + 1);
 
                 if (expr.postfix)
                     return value;
@@ -467,7 +1192,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 checkNumberOperand(expr.operator, right);
                 double value = (double) right;
                 Expr.Variable variable = (Expr.Variable) expr.right;
-                environment.assign(variable.name, value - 1);
+                assignVariable(variable, value - 1);
 
                 if (expr.postfix)
                     return value;
@@ -480,25 +1205,129 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
-    @Override
-    public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+    Object negate(Token operator, Object right) {
+        if (right instanceof Double) return -(double) right;
+        if("muffin".equals(stringify(right))) {
+            throw new RuntimeError(operator, "I don't know, man, can you negate a muffin?");
+        }
+        checkNumberOperand(operator, right);
+        return -(double) right;
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
+    @Override
+    public Object visitVariableExpr(Expr.Variable expr) {
         Object value;
 
-        value = environment.ancestor(distance).get(name);
+        if (!expr.isGlobal) {
+            value = readLocal(expr.slot, expr.isUpvalue, expr.isBoxed);
+        } else {
+            if (expr.cell == null) expr.cell = globalCell(expr.name.lexeme);
+            value = readGlobal(expr.name, expr.cell);
+        }
 
         if (value == uninitialized) {
-            throw new RuntimeError(name,
+            throw new RuntimeError(expr.name,
                     "Variable must be initialized before use.");
         }
 
         return value;
     }
 
+    // Reads a variable for a superinstruction, which leaves anything but a
+    // number, including the markers of missing values, to the general case.
+    private Object peek(Expr.Variable variable) {
+        if (!variable.isGlobal) {
+            return readLocal(variable.slot, variable.isUpvalue, variable.isBoxed);
+        }
+        if (variable.cell == null) variable.cell = globalCell(variable.name.lexeme);
+        return variable.cell.value;
+    }
+
+    private Object peek(Expr.Assign assign) {
+        if (!assign.isGlobal) {
+            return readLocal(assign.slot, assign.isUpvalue, assign.isBoxed);
+        }
+        if (assign.cell == null) assign.cell = globalCell(assign.name.lexeme);
+        return assign.cell.value;
+    }
+
+    void assignVariable(Expr.Variable variable, Object value) {
+        if (variable.isGlobal) {
+            if (variable.cell == null) variable.cell = globalCell(variable.name.lexeme);
+            assignGlobal(variable.name, variable.cell, value);
+        } else {
+            writeLocal(variable.slot, variable.isUpvalue, variable.isBoxed, value);
+        }
+    }
+
+    private Cell globalCell(String name) {
+        Cell cell = globals.get(name);
+        if (cell == null) {
+            cell = new Cell(undefined);
+            globals.put(name, cell);
+        }
+        return cell;
+    }
+
+    private Object readGlobal(Token name, Cell cell) {
+        if (cell.value == undefined) {
+            throw new RuntimeError(name,
+                    "Undefined variable '" + name.lexeme + "'.");
+        }
+        return cell.value;
+    }
+
+    private void assignGlobal(Token name, Cell cell, Object value) {
+        if (cell.value == undefined) {
+            throw new RuntimeError(name,
+                    "Undefined variable '" + name.lexeme + "'.");
+        }
+        cell.value = value;
+    }
+
+    // Boxed locals get their cell before the initializer runs, so closures
+    // created by it capture the variable being declared.
+    private void declare(int slot, boolean isBoxed) {
+        if (frameBase >= 0 && isBoxed) stack[frameBase + slot] = new Cell(null);
+    }
+
+    private void define(Token name, int slot, boolean isBoxed, Object value) {
+        if (frameBase < 0) {
+            globalCell(name.lexeme).value = value;
+        } else if (isBoxed) {
+            ((Cell) stack[frameBase + slot]).value = value;
+        } else {
+            stack[frameBase + slot] = value;
+        }
+    }
+
+    private Object readLocal(int slot, boolean isUpvalue, boolean isBoxed) {
+        if (isUpvalue) return upvalues[slot].value;
+        if (isBoxed) return ((Cell) stack[frameBase + slot]).value;
+        return stack[frameBase + slot];
+    }
+
+    private void writeLocal(int slot, boolean isUpvalue, boolean isBoxed, Object value) {
+        if (isUpvalue) {
+            upvalues[slot].value = value;
+        } else if (isBoxed) {
+            ((Cell) stack[frameBase + slot]).value = value;
+        } else {
+            stack[frameBase + slot] = value;
+        }
+    }
+
+    private Cell[] capture(Expr.Function function) {
+        Cell[] captured = new Cell[function.captures.length];
+        for (int i = 0; i < captured.length; i++) {
+            int capture = function.captures[i];
+            captured[i] = capture >= 0 ?
+                    (Cell) stack[frameBase + capture] :
+                    upvalues[~capture];
+        }
+        return captured;
+    }
+
     @Override
     public Object visitTernaryExpr(Expr.Ternary expr) {
         Object check = evaluate(expr.expr);
@@ -509,13 +1338,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return evaluate(expr.elseBranch);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
@@ -527,12 +1356,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         // none is only equal to none.
         return a == null && b == null || a != null && a.equals(b);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "none";
 
         // Hack. Work around Java adding ".0" to integer-valued doubles.
@@ -553,6 +1382,187 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         int multiplier = (int) n;
         if (multiplier < 0) multiplier = 0;
 
-        return String.join("", Collections.nCopies(multiplier, s));
+        return s.repeat(multiplier);
+    }
+
+    // Small whole exponents, the usual ones in scripts, are worked out with
+    // multiplication, which gives the same result as Math.pow for them.
+    static double power(double base, double exponent) {
+        if (exponent == 2) return base * base;
+        if (exponent == 1) return base;
+        if (exponent == 0) return 1;
+        return Math.pow(base, exponent);
+    }
+
+    // Entry points for the code the Jit compiles, which has evaluated the
+    // operands already.
+
+    Object compound(Expr.Assign expr, Object current, Object operand) {
+        if (!(operand instanceof Double) || !(current instanceof Double)) {
+            throw new RuntimeError(expr.equals, "Operands must be numbers.");
+        }
+        return compound(expr.equals.type, (double) current, (double) operand);
+    }
+
+    Object assignCompiled(Expr.Assign expr, Object value) {
+        if (expr.cell == null) expr.cell = globalCell(expr.name.lexeme);
+        if (expr.equals.type != TokenType.EQUAL) {
+            value = compound(expr, readGlobal(expr.name, expr.cell), value);
+        }
+        assignGlobal(expr.name, expr.cell, value);
+        return value;
+    }
+
+    // Returns the method of the instance the property refers to, or null if
+    // object is not an instance or the property is not a method.
+    Function method(Expr.Get get, Object object) {
+        if (!(object instanceof Instance)) return null;
+        if (get.cache == null) get.cache = new PropertyCache();
+        if (stats != null) {
+            if (get.cache.contains((Instance) object)) {
+                stats.methodHits++;
+            } else {
+                stats.methodMisses++;
+            }
+        }
+        Function method = get.cache.method((Instance) object, get.name);
+        if (method == null || method.isGetter()) return null;
+        return method;
+    }
+
+    // Calls from compiled code, whose receiver is the instance callee is a
+    // method of, or null if callee is any other value. There is one for each
+    // number of arguments up to three, and one taking them in an array.
+    Object callCompiled(Expr.Call expr, Object receiver, Object callee) {
+        Callable target = compiledCallee(expr, receiver, callee);
+        depth++;
+        try {
+            if (receiver != null) return ((Function) target).invoke0(this, (Instance) receiver);
+            return target.call0(this);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            depth--;
+        }
+    }
+
+    Object callCompiled(Expr.Call expr, Object receiver, Object callee, Object a) {
+        Callable target = compiledCallee(expr, receiver, callee);
+        depth++;
+        try {
+            if (receiver != null) return ((Function) target).invoke1(this, (Instance) receiver, a);
+            return target.call1(this, a);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            depth--;
+        }
+    }
+
+    Object callCompiled(Expr.Call expr, Object receiver, Object callee, Object a, Object b) {
+        Callable target = compiledCallee(expr, receiver, callee);
+        depth++;
+        try {
+            if (receiver != null) {
+                return ((Function) target).invoke2(this, (Instance) receiver, a, b);
+            }
+            return target.call2(this, a, b);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            depth--;
+        }
+    }
+
+    Object callCompiled(Expr.Call expr, Object receiver, Object callee,
+                        Object a, Object b, Object c) {
+        Callable target = compiledCallee(expr, receiver, callee);
+        depth++;
+        try {
+            if (receiver != null) {
+                return ((Function) target).invoke3(this, (Instance) receiver, a, b, c);
+            }
+            return target.call3(this, a, b, c);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            depth--;
+        }
+    }
+
+    Object callCompiled(Expr.Call expr, Object receiver, Object callee, Object[] arguments) {
+        Callable target = compiledCallee(expr, receiver, callee);
+        depth++;
+        try {
+            if (receiver != null) {
+                return ((Function) target).invoke(this, (Instance) receiver, arguments);
+            }
+            return target.call(this, arguments);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            depth--;
+        }
+    }
+
+    // Checks the depth and the callee of a call from compiled code. A
+    // method found for its receiver only needs its arity checked.
+    private Callable compiledCallee(Expr.Call expr, Object receiver, Object callee) {
+        if (depth == maxDepth) throw new RuntimeError(expr.paren, "Stack overflow.");
+        if (receiver == null) return checkCallee(expr, callee);
+
+        checkArity(expr, (Function) callee);
+        return (Function) callee;
+    }
+
+    // Calls in tail position from compiled code, which push their arguments
+    // on the stack. They return the value of the call, or null with the call
+    // left for runFrame() to make in place of the returning one.
+    Object tailCallCompiled(Expr.Call expr, Object receiver, Object callee) {
+        return finishTailCall(expr, receiver, callee, stackTop);
+    }
+
+    Object tailCallCompiled(Expr.Call expr, Object receiver, Object callee, Object a) {
+        int arguments = stackTop;
+        ensureStack(stackTop + 1);
+        stack[stackTop++] = a;
+        return finishTailCall(expr, receiver, callee, arguments);
+    }
+
+    Object tailCallCompiled(Expr.Call expr, Object receiver, Object callee,
+                            Object a, Object b) {
+        int arguments = stackTop;
+        ensureStack(stackTop + 2);
+        stack[stackTop++] = a;
+        stack[stackTop++] = b;
+        return finishTailCall(expr, receiver, callee, arguments);
+    }
+
+    Object tailCallCompiled(Expr.Call expr, Object receiver, Object callee,
+                            Object a, Object b, Object c) {
+        int arguments = stackTop;
+        ensureStack(stackTop + 3);
+        stack[stackTop++] = a;
+        stack[stackTop++] = b;
+        stack[stackTop++] = c;
+        return finishTailCall(expr, receiver, callee, arguments);
+    }
+
+    Object tailCallCompiled(Expr.Call expr, Object receiver, Object callee, Object[] values) {
+        int arguments = stackTop;
+        ensureStack(stackTop + values.length);
+        System.arraycopy(values, 0, stack, stackTop, values.length);
+        stackTop += values.length;
+        return finishTailCall(expr, receiver, callee, arguments);
+    }
+
+    private Object finishTailCall(Expr.Call expr, Object receiver, Object callee,
+                                  int arguments) {
+        Function function = receiver == null ? null : (Function) callee;
+        tailCall(expr, callee, function, (Instance) receiver, arguments);
+        if (tailCallee != null) return null;
+        Object value = returnValue;
+        returnValue = null;
+        return value;
     }
-}
\ No newline at end of file
+}
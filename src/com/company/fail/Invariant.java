@@ -0,0 +1,14 @@
+package com.company.fail;
+
+// The value of an expression that does not change while its loop runs. It is
+// computed the first time the expression is evaluated after the loop starts,
+// so any error is still reported there, and reused until the loop starts
+// again. frame and getterCalls tell which call it was computed in and
+// whether a getter, which could have changed anything, has run since.
+class Invariant {
+    static final int NONE = Integer.MIN_VALUE;
+
+    int frame = NONE;
+    int getterCalls;
+    Object value;
+}
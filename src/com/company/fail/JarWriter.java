@@ -0,0 +1,311 @@
+package com.company.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.company.fail.ClassFile.*;
+
+// Writes the jars "jfail --compile" makes, which run a script with nothing
+// but java -jar. A jar holds the classes of jfail itself, the classes the Jit
+// compiled the script's functions into, the Program tying them to the
+// script's tree, and a main class that hands the Program to
+// Fail.runEmbedded().
+class JarWriter {
+    private static final String PACKAGE = "com/company/fail/";
+    private static final String MAIN = "FailMain";
+    private static final String PROGRAM = "program.bin";
+
+    static void write(List<Stmt> statements, String path) throws IOException {
+        Program program = new Program(statements);
+        List<Jit.CompiledClass> classes = compile(program, statements);
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, MAIN);
+
+        try (OutputStream file = Files.newOutputStream(Paths.get(path));
+             JarOutputStream jar = new JarOutputStream(file, manifest)) {
+            copyClasses(jar);
+            for (Jit.CompiledClass compiled : classes) {
+                add(jar, compiled.name + ".class", compiled.bytes);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            program.write(bytes);
+            add(jar, PROGRAM, bytes.toByteArray());
+            add(jar, MAIN + ".class", mainClass());
+        }
+    }
+
+    // Compiles every function the Jit supports into the classes the Program
+    // expects. Functions it does not support are marked so the Interpreter
+    // does not try again at runtime. The top-level code is left to the
+    // Interpreter: compiled, its loops go through the same helpers for
+    // globals and operators the tree-walker uses, and ran slower.
+    private static List<Jit.CompiledClass> compile(Program program, List<Stmt> statements) {
+        Jit jit = new Jit();
+        List<Jit.CompiledClass> classes = new ArrayList<>();
+        Map<Expr.Function, Boolean> functions = new FunctionFinder().find(statements);
+        for (Map.Entry<Expr.Function, Boolean> entry : functions.entrySet()) {
+            Expr.Function function = entry.getKey();
+            Jit.CompiledClass compiled = jit.compile(
+                    Program.function(program.functionCount()), function, entry.getValue());
+            if (compiled == null) {
+                function.hotness = Integer.MIN_VALUE;
+                continue;
+            }
+            program.addFunction(function, compiled.nodes);
+            classes.add(compiled);
+        }
+        return classes;
+    }
+
+    private static byte[] mainClass() {
+        ClassFile file = new ClassFile(MAIN, "java/lang/Object");
+        ClassFile.Code code = file.code(1);
+        code.push("/" + PROGRAM);
+        code.invoke(INVOKESTATIC, PACKAGE + "Fail", "runEmbedded", "(Ljava/lang/String;)V");
+        code.op(RETURN);
+        file.staticMethod("main", "([Ljava/lang/String;)V", code);
+        return file.toByteArray();
+    }
+
+    // Copies the classes of this package from wherever they were loaded,
+    // either a directory or a jar.
+    private static void copyClasses(JarOutputStream jar) throws IOException {
+        Path location;
+        try {
+            location = Paths.get(Fail.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        if (Files.isDirectory(location)) {
+            List<Path> classes;
+            try (Stream<Path> files = Files.walk(location.resolve(PACKAGE))) {
+                classes = files.filter(Files::isRegularFile).sorted()
+                        .collect(Collectors.toList());
+            }
+            for (Path path : classes) {
+                String name = location.relativize(path).toString().replace('\\', '/');
+                add(jar, name, Files.readAllBytes(path));
+            }
+            return;
+        }
+
+        try (JarFile classes = new JarFile(location.toFile())) {
+            Enumeration<JarEntry> entries = classes.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().startsWith(PACKAGE)) continue;
+                try (InputStream input = classes.getInputStream(entry)) {
+                    add(jar, entry.getName(), input.readAllBytes());
+                }
+            }
+        }
+    }
+
+    private static void add(JarOutputStream jar, String name, byte[] bytes) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+
+    // Finds every function in a tree, and whether it is a method, which
+    // takes its receiver in the first slot.
+    private static class FunctionFinder implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Map<Expr.Function, Boolean> functions = new LinkedHashMap<>();
+
+        Map<Expr.Function, Boolean> find(List<Stmt> statements) {
+            walk(statements);
+            return functions;
+        }
+
+        private void walk(List<Stmt> statements) {
+            for (Stmt statement : statements) statement.accept(this);
+        }
+
+        private void find(Expr.Function function, boolean isMethod) {
+            functions.put(function, isMethod);
+            find(function.result);
+            walk(function.body);
+        }
+
+        private void find(Expr expr) {
+            if (expr != null) expr.accept(this);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            walk(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            find(stmt.superclass);
+            for (Stmt.Function method : stmt.methods) find(method.function, true);
+            for (Stmt.Function method : stmt.classMethods) find(method.function, true);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            find(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            find(stmt.function, false);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            find(stmt.condition);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            find(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            find(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            find(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            find(stmt.condition);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            find(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            find(expr.left);
+            find(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionExpr(Expr.Function expr) {
+            find(expr, false);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            find(expr.callee);
+            for (Expr argument : expr.arguments) find(argument);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            find(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            find(expr.object);
+            find(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            find(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            find(expr.left);
+            find(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            find(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            find(expr.expr);
+            find(expr.thenBranch);
+            find(expr.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+    }
+}
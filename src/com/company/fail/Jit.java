@@ -0,0 +1,856 @@
+package com.company.fail;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.company.fail.ClassFile.*;
+
+// Compiles functions the Interpreter finds itself running often into JVM
+// classes, which HotSpot can then compile further. Locals live in JVM locals,
+// arithmetic TypeInference has proven to be on numbers is done on doubles,
+// and everything else calls back into the Interpreter through CompiledCode,
+// so the compiled function behaves exactly like the tree it came from.
+// Functions that create closures, use captured variables or super are left
+// to the Interpreter. For "jfail --compile", it also compiles every function
+// of a script ahead of time.
+class Jit implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // Calls and loop iterations a function runs before it is compiled.
+    static final int THRESHOLD = 1000;
+    // Bytes of code past which HotSpot leaves a method to its bytecode
+    // interpreter, which runs it slower than the Interpreter runs the tree.
+    private static final int HUGE_METHOD = 8000;
+    // Calls with more arguments than this pass them in an array.
+    private static final int MAX_FIXED_ARGUMENTS = 3;
+
+    private static final String BASE = "com/company/fail/CompiledCode";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String BOOLEAN = "java/lang/Boolean";
+    private static final String STRING = "java/lang/String";
+    private static final String RUN = "([Ljava/lang/Object;I)Ljava/lang/Object;";
+    static final String PACKAGE = "com/company/fail/compiled/";
+    // The JVM locals of run() before the ones holding the frame's slots.
+    private static final int THIS = 0;
+    private static final int STACK = 1;
+    private static final int BASE_INDEX = 2;
+    private static final int FIRST_SLOT = 3;
+
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Each Interpreter gets a class loader of its own for its compiled code.
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(Jit.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    // A class written by the Jit, and the nodes to construct it with.
+    static class CompiledClass {
+        final String name;
+        final byte[] bytes;
+        final Object[] nodes;
+
+        CompiledClass(String name, byte[] bytes, Object[] nodes) {
+            this.name = name;
+            this.bytes = bytes;
+            this.nodes = nodes;
+        }
+    }
+
+    private final Loader loader = new Loader();
+    private int classes = 0;
+
+    // State of the function being compiled.
+    private ClassFile.Code code;
+    private List<Object> nodes;
+    private Map<Object, Integer> nodeIndices;
+    private ClassFile.Label breakLabel;
+    private ClassFile.Label continueLabel;
+
+    // Returns null if the function uses anything the Jit does not support.
+    CompiledCode compile(Interpreter interpreter, Expr.Function function,
+                         boolean isMethod) {
+        CompiledClass compiled = compile(PACKAGE + "Function" + classes++, function, isMethod);
+        if (compiled == null) return null;
+
+        // A class the JVM rejects is a bug in the Jit, which is left to show
+        // as the LinkageError rather than be covered for by the Interpreter.
+        Class<?> type = loader.define(compiled.name.replace('/', '.'), compiled.bytes);
+        try {
+            return load(type, interpreter, compiled.nodes);
+        } catch (ReflectiveOperationException e) {
+            // Every class the Jit writes has that constructor.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static CompiledCode load(Class<?> compiled, Interpreter interpreter, Object[] nodes)
+            throws ReflectiveOperationException {
+        return (CompiledCode) compiled
+                .getConstructor(Object.class, Object[].class)
+                .newInstance(interpreter, nodes);
+    }
+
+    // Returns null if the function uses anything the Jit does not support.
+    // Empty bodies and bodies that only return a value are left alone too,
+    // as the Interpreter runs them about as fast without the extra call.
+    CompiledClass compile(String name, Expr.Function function, boolean isMethod) {
+        if (function.body.isEmpty() || function.result != null) return null;
+        if (function.captures.length > 0 || function.boxedParameters.length > 0) {
+            return null;
+        }
+
+        ClassFile file = new ClassFile(name, BASE);
+        start();
+        try {
+            constructor(file);
+            run(file, function, isMethod);
+            return new CompiledClass(name, file.toByteArray(), nodes.toArray());
+        } catch (Unsupported | ClassFile.TooLarge e) {
+            return null;
+        } finally {
+            finish();
+        }
+    }
+
+    private void start() {
+        nodes = new ArrayList<>();
+        nodeIndices = new IdentityHashMap<>();
+        breakLabel = null;
+        continueLabel = null;
+    }
+
+    private void finish() {
+        code = null;
+        nodes = null;
+        nodeIndices = null;
+    }
+
+    private void constructor(ClassFile file) {
+        code = file.code(3);
+        code.load(ALOAD, 0);
+        code.load(ALOAD, 1);
+        code.load(ALOAD, 2);
+        code.invoke(INVOKESPECIAL, BASE, "<init>", "(Ljava/lang/Object;[Ljava/lang/Object;)V");
+        code.op(RETURN);
+        file.method("<init>", "(Ljava/lang/Object;[Ljava/lang/Object;)V", code);
+    }
+
+    private void run(ClassFile file, Expr.Function function, boolean isMethod) {
+        code = file.code(FIRST_SLOT + function.size);
+
+        // Take the receiver and arguments from the Interpreter's stack, and
+        // start the other locals out empty.
+        int parameters = function.parameters == null ? 0 : function.parameters.size();
+        if (isMethod) parameters++;
+        for (int slot = 0; slot < function.size; slot++) {
+            if (slot < parameters) {
+                code.load(ALOAD, STACK);
+                code.load(ILOAD, BASE_INDEX);
+                code.push(slot);
+                code.op(IADD);
+                code.op(AALOAD);
+            } else {
+                code.op(ACONST_NULL);
+            }
+            code.store(FIRST_SLOT + slot);
+        }
+
+        compile(function.body);
+        if (code.isReachable()) {
+            code.op(ACONST_NULL);
+            code.op(ARETURN);
+        }
+        if (code.length() > HUGE_METHOD) throw new Unsupported();
+        file.method("run", RUN, code);
+    }
+
+    private int node(Object node) {
+        Integer index = nodeIndices.get(node);
+        if (index != null) return index;
+
+        nodes.add(node);
+        nodeIndices.put(node, nodes.size() - 1);
+        return nodes.size() - 1;
+    }
+
+    private void helper(String name, String descriptor) {
+        code.invoke(INVOKEVIRTUAL, BASE, name, descriptor);
+    }
+
+    private void staticHelper(String name, String descriptor) {
+        code.invoke(INVOKESTATIC, BASE, name, descriptor);
+    }
+
+    private void compile(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            if (!code.isReachable()) return;
+            statements.get(i).accept(this);
+        }
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // Jumps to ifFalse unless the condition is truthy.
+    private void condition(Expr expr, ClassFile.Label ifFalse) {
+        if (expr instanceof Expr.Binary && ((Expr.Binary) expr).operands == Type.NUMBER &&
+                isComparison(((Expr.Binary) expr).operator.type)) {
+            compare((Expr.Binary) expr, ifFalse);
+            return;
+        }
+
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            if (logical.operator.type == TokenType.AND) {
+                condition(logical.left, ifFalse);
+                condition(logical.right, ifFalse);
+            } else {
+                ClassFile.Label right = new ClassFile.Label();
+                ClassFile.Label end = new ClassFile.Label();
+                condition(logical.left, right);
+                code.jump(GOTO, end);
+                code.mark(right);
+                condition(logical.right, ifFalse);
+                code.mark(end);
+            }
+            return;
+        }
+
+        compile(expr);
+        staticHelper("isTruthy", "(Ljava/lang/Object;)Z");
+        code.jump(IFEQ, ifFalse);
+    }
+
+    private static boolean isComparison(TokenType operator) {
+        switch (operator) {
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isArithmetic(TokenType operator) {
+        switch (operator) {
+            case MINUS:
+            case PLUS:
+            case SLASH:
+            case STAR:
+            case STAR_STAR:
+                return true;
+        }
+        return false;
+    }
+
+    // Comparisons involving NaN are false, which is what dcmpg gives for <
+    // and <=, and dcmpl for > and >=.
+    private void compare(Expr.Binary expr, ClassFile.Label ifFalse) {
+        number(expr.left);
+        number(expr.right);
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                staticHelper("same", "(DD)Z");
+                code.jump(IFNE, ifFalse);
+                break;
+            case EQUAL_EQUAL:
+                staticHelper("same", "(DD)Z");
+                code.jump(IFEQ, ifFalse);
+                break;
+            case GREATER:
+                code.op(DCMPL);
+                code.jump(IFLE, ifFalse);
+                break;
+            case GREATER_EQUAL:
+                code.op(DCMPL);
+                code.jump(IFLT, ifFalse);
+                break;
+            case LESS:
+                code.op(DCMPG);
+                code.jump(IFGE, ifFalse);
+                break;
+            case LESS_EQUAL:
+                code.op(DCMPG);
+                code.jump(IFGT, ifFalse);
+                break;
+        }
+    }
+
+    // Leaves an expression TypeInference has proven to be a number on the
+    // stack as a double.
+    private void number(Expr expr) {
+        if (expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double) {
+            code.push((double) ((Expr.Literal) expr).value);
+            return;
+        }
+
+        if (expr instanceof Expr.Variable && ((Expr.Variable) expr).type == Type.NUMBER) {
+            code.load(ALOAD, FIRST_SLOT + ((Expr.Variable) expr).slot);
+            unbox();
+            return;
+        }
+
+        if (expr instanceof Expr.Binary && ((Expr.Binary) expr).operands == Type.NUMBER &&
+                isArithmetic(((Expr.Binary) expr).operator.type)) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            number(binary.left);
+            number(binary.right);
+            switch (binary.operator.type) {
+                case MINUS: code.op(DSUB); break;
+                case PLUS: code.op(DADD); break;
+                case SLASH: code.op(DDIV); break;
+                case STAR: code.op(DMUL); break;
+                case STAR_STAR: staticHelper("power", "(DD)D"); break;
+            }
+            return;
+        }
+
+        compile(expr);
+        unbox();
+    }
+
+    private void unbox() {
+        code.type(CHECKCAST, DOUBLE);
+        code.invoke(INVOKEVIRTUAL, DOUBLE, "doubleValue", "()D");
+    }
+
+    private void box() {
+        code.invoke(INVOKESTATIC, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+    }
+
+    private void bool(ClassFile.Label ifFalse) {
+        ClassFile.Label end = new ClassFile.Label();
+        code.getStatic(BOOLEAN, "TRUE", "Ljava/lang/Boolean;");
+        code.jump(GOTO, end);
+        code.mark(ifFalse);
+        code.getStatic(BOOLEAN, "FALSE", "Ljava/lang/Boolean;");
+        code.mark(end);
+    }
+
+    private boolean isLocal(Expr.Variable variable) {
+        if (variable.isGlobal) return false;
+        if (variable.isUpvalue || variable.isBoxed) throw new Unsupported();
+        return true;
+    }
+
+    private void read(Expr.Variable variable) {
+        if (!isLocal(variable)) {
+            code.load(ALOAD, THIS);
+            code.push(node(variable));
+            helper("global", "(I)Ljava/lang/Object;");
+            return;
+        }
+
+        if (variable.type != null) {
+            code.load(ALOAD, FIRST_SLOT + variable.slot);
+            return;
+        }
+        code.load(ALOAD, THIS);
+        code.load(ALOAD, FIRST_SLOT + variable.slot);
+        code.push(node(variable));
+        helper("initialized", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+    }
+
+    // Stores the value on top of the stack into the variable, leaving the
+    // stack empty of it.
+    private void write(Expr.Variable variable) {
+        if (isLocal(variable)) {
+            code.store(FIRST_SLOT + variable.slot);
+            return;
+        }
+        code.load(ALOAD, THIS);
+        code.op(SWAP);
+        code.push(node(variable));
+        helper("assignGlobal", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+        code.op(POP);
+    }
+
+    // Calls the call or tailCall helper for the number of arguments of the
+    // call, with this, the receiver, the callee and the arguments left on the
+    // stack by callee().
+    private void call(String helper, Expr.Call expr) {
+        int count = expr.arguments.size();
+        StringBuilder descriptor = new StringBuilder("(Ljava/lang/Object;Ljava/lang/Object;");
+        if (count <= MAX_FIXED_ARGUMENTS) {
+            helper += count;
+            for (int i = 0; i < count; i++) descriptor.append("Ljava/lang/Object;");
+        } else {
+            descriptor.append("[Ljava/lang/Object;");
+        }
+        helper(helper, descriptor.append("I)Ljava/lang/Object;").toString());
+    }
+
+    // Leaves this, the receiver, the callee, the arguments and the node of
+    // the call on the stack. The receiver is the object of a call to one of
+    // its methods, which is then not bound, and null for any other callee.
+    // Up to MAX_FIXED_ARGUMENTS arguments are left as they are, more in an
+    // array.
+    private void callee(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            int receiver = code.newLocal();
+            int callee = code.newLocal();
+            ClassFile.Label isMethod = new ClassFile.Label();
+            compile(get.object);
+            code.store(receiver);
+            code.load(ALOAD, THIS);
+            code.load(ALOAD, receiver);
+            code.push(node(get));
+            helper("method", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+            code.op(DUP);
+            code.store(callee);
+            code.jump(IFNONNULL, isMethod);
+
+            code.load(ALOAD, THIS);
+            code.load(ALOAD, receiver);
+            code.push(node(get));
+            helper("get", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+            code.store(callee);
+            code.op(ACONST_NULL);
+            code.store(receiver);
+            code.mark(isMethod);
+
+            code.load(ALOAD, THIS);
+            code.load(ALOAD, receiver);
+            code.load(ALOAD, callee);
+        } else {
+            code.load(ALOAD, THIS);
+            code.op(ACONST_NULL);
+            compile(expr.callee);
+        }
+
+        List<Expr> arguments = expr.arguments;
+        if (arguments.size() <= MAX_FIXED_ARGUMENTS) {
+            for (Expr argument : arguments) compile(argument);
+        } else {
+            code.push(arguments.size());
+            code.type(ANEWARRAY, OBJECT);
+            for (int i = 0; i < arguments.size(); i++) {
+                code.op(DUP);
+                code.push(i);
+                compile(arguments.get(i));
+                code.op(AASTORE);
+            }
+        }
+        code.push(node(expr));
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.flattened) throw new Unsupported();
+        compile(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.op(POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassFile.Label elseBranch = new ClassFile.Label();
+        condition(stmt.condition, elseBranch);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            code.mark(elseBranch);
+            return null;
+        }
+
+        ClassFile.Label end = new ClassFile.Label();
+        if (code.isReachable()) code.jump(GOTO, end);
+        code.mark(elseBranch);
+        stmt.elseBranch.accept(this);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        staticHelper("print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.isTailCall) {
+            tailReturn(stmt.value);
+            return null;
+        }
+
+        if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            code.op(ACONST_NULL);
+        }
+        code.op(ARETURN);
+        return null;
+    }
+
+    // Returns the value of an expression that may end in a call, making that
+    // call in tail position if it does.
+    private void tailReturn(Expr expr) {
+        if (expr instanceof Expr.Call) {
+            callee((Expr.Call) expr);
+            call("tailCall", (Expr.Call) expr);
+            code.op(ARETURN);
+        } else if (expr instanceof Expr.Grouping) {
+            tailReturn(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Ternary) {
+            Expr.Ternary ternary = (Expr.Ternary) expr;
+            ClassFile.Label elseBranch = new ClassFile.Label();
+            condition(ternary.expr, elseBranch);
+            tailReturn(ternary.thenBranch);
+            code.mark(elseBranch);
+            tailReturn(ternary.elseBranch);
+        } else if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            ClassFile.Label right = new ClassFile.Label();
+            compile(logical.left);
+            code.op(DUP);
+            staticHelper("isTruthy", "(Ljava/lang/Object;)Z");
+            code.jump(logical.operator.type == TokenType.OR ? IFEQ : IFNE, right);
+            code.op(ARETURN);
+            code.mark(right);
+            code.op(POP);
+            tailReturn(logical.right);
+        } else {
+            compile(expr);
+            code.op(ARETURN);
+        }
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.isBoxed) throw new Unsupported();
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            staticHelper("uninitialized", "()Ljava/lang/Object;");
+        }
+        code.store(FIRST_SLOT + stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.isDoWhile) {
+            doWhile(stmt);
+            return null;
+        }
+
+        ClassFile.Label enclosingBreak = breakLabel;
+        ClassFile.Label enclosingContinue = continueLabel;
+        ClassFile.Label start = new ClassFile.Label();
+        breakLabel = new ClassFile.Label();
+        continueLabel = start;
+
+        code.mark(start);
+        condition(stmt.condition, breakLabel);
+        stmt.body.accept(this);
+        if (code.isReachable()) code.jump(GOTO, start);
+        code.mark(breakLabel);
+
+        breakLabel = enclosingBreak;
+        continueLabel = enclosingContinue;
+        return null;
+    }
+
+    private void doWhile(Stmt.While loop) {
+        ClassFile.Label enclosingBreak = breakLabel;
+        ClassFile.Label enclosingContinue = continueLabel;
+        ClassFile.Label start = new ClassFile.Label();
+        breakLabel = new ClassFile.Label();
+        continueLabel = new ClassFile.Label();
+
+        code.mark(start);
+        loop.body.accept(this);
+        code.mark(continueLabel);
+        condition(loop.condition, breakLabel);
+        code.jump(GOTO, start);
+        code.mark(breakLabel);
+
+        breakLabel = enclosingBreak;
+        continueLabel = enclosingContinue;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        code.jump(GOTO, breakLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        code.jump(GOTO, continueLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        boolean isLocal = !expr.isGlobal;
+        if (expr.isUpvalue || expr.isBoxed) throw new Unsupported();
+
+        if (expr.equals.type == TokenType.EQUAL) {
+            if (isLocal) {
+                compile(expr.value);
+                code.op(DUP);
+                code.store(FIRST_SLOT + expr.slot);
+            } else {
+                code.load(ALOAD, THIS);
+                compile(expr.value);
+                code.push(node(expr));
+                helper("assignGlobal", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+            }
+            return null;
+        }
+
+        if (isLocal) {
+            code.load(ALOAD, THIS);
+            compile(expr.value);
+            code.load(ALOAD, FIRST_SLOT + expr.slot);
+            code.push(node(expr));
+            helper("compound", "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;");
+            code.op(DUP);
+            code.store(FIRST_SLOT + expr.slot);
+        } else {
+            code.load(ALOAD, THIS);
+            compile(expr.value);
+            code.push(node(expr));
+            helper("assignGlobal", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        TokenType operator = expr.operator.type;
+        if (operator == TokenType.COMMA) {
+            compile(expr.left);
+            code.op(POP);
+            compile(expr.right);
+            return null;
+        }
+
+        if (expr.operands == Type.NUMBER) {
+            if (isComparison(operator)) {
+                ClassFile.Label ifFalse = new ClassFile.Label();
+                compare(expr, ifFalse);
+                bool(ifFalse);
+            } else {
+                number(expr);
+                box();
+            }
+            return null;
+        }
+
+        if (expr.operands == Type.STRING) {
+            compile(expr.left);
+            code.type(CHECKCAST, STRING);
+            compile(expr.right);
+            if (operator == TokenType.PLUS) {
+                code.type(CHECKCAST, STRING);
+                code.invoke(INVOKEVIRTUAL, STRING, "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+                return null;
+            }
+
+            code.invoke(INVOKEVIRTUAL, STRING, "equals", "(Ljava/lang/Object;)Z");
+            ClassFile.Label ifFalse = new ClassFile.Label();
+            code.jump(operator == TokenType.EQUAL_EQUAL ? IFEQ : IFNE, ifFalse);
+            bool(ifFalse);
+            return null;
+        }
+
+        code.load(ALOAD, THIS);
+        compile(expr.left);
+        compile(expr.right);
+        code.push(node(expr));
+        helper("binary", "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        callee(expr);
+        call("call", expr);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if (expr.isUpvalue || expr.isBoxed) throw new Unsupported();
+        code.load(ALOAD, FIRST_SLOT + expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        code.load(ALOAD, THIS);
+        compile(expr.object);
+        code.push(node(expr));
+        helper("get", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        code.load(ALOAD, THIS);
+        code.load(ALOAD, THIS);
+        compile(expr.object);
+        code.push(node(expr));
+        helper("instance", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+        compile(expr.value);
+        code.push(node(expr));
+        helper("set", "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value == null) {
+            code.op(ACONST_NULL);
+        } else if (value instanceof String) {
+            code.push((String) value);
+        } else if (value instanceof Boolean) {
+            code.getStatic(BOOLEAN, (boolean) value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else {
+            code.load(ALOAD, THIS);
+            code.push(node(value));
+            helper("constant", "(I)Ljava/lang/Object;");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        ClassFile.Label end = new ClassFile.Label();
+        compile(expr.left);
+        code.op(DUP);
+        staticHelper("isTruthy", "(Ljava/lang/Object;)Z");
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP);
+        compile(expr.right);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        switch (expr.operator.type) {
+            case BANG:
+                compile(expr.right);
+                staticHelper("not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+                return null;
+            case MINUS:
+                if (expr.right instanceof Expr.Variable &&
+                        ((Expr.Variable) expr.right).type == Type.NUMBER ||
+                        expr.right instanceof Expr.Binary &&
+                        ((Expr.Binary) expr.right).operands == Type.NUMBER &&
+                        isArithmetic(((Expr.Binary) expr.right).operator.type)) {
+                    number(expr.right);
+                    code.op(DNEG);
+                    box();
+                    return null;
+                }
+                code.load(ALOAD, THIS);
+                compile(expr.right);
+                code.push(node(expr));
+                helper("negate", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+                return null;
+        }
+
+        // Increments of anything but a variable are an error the
+        // Interpreter reports.
+        if (!(expr.right instanceof Expr.Variable)) throw new Unsupported();
+        Expr.Variable variable = (Expr.Variable) expr.right;
+        double delta = expr.operator.type == TokenType.PLUS_PLUS ? 1 : -1;
+
+        if (expr.postfix) {
+            int previous = code.newLocal();
+            read(variable);
+            code.store(previous);
+            code.load(ALOAD, THIS);
+            code.load(ALOAD, previous);
+            code.push(node(expr));
+            code.push(delta);
+            helper("step", "(Ljava/lang/Object;ID)Ljava/lang/Object;");
+            write(variable);
+            code.load(ALOAD, previous);
+        } else {
+            code.load(ALOAD, THIS);
+            read(variable);
+            code.push(node(expr));
+            code.push(delta);
+            helper("step", "(Ljava/lang/Object;ID)Ljava/lang/Object;");
+            code.op(DUP);
+            write(variable);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        ClassFile.Label elseBranch = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        condition(expr.expr, elseBranch);
+        compile(expr.thenBranch);
+        code.jump(GOTO, end);
+        code.mark(elseBranch);
+        compile(expr.elseBranch);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        read(expr);
+        return null;
+    }
+}
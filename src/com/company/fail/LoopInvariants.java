@@ -0,0 +1,304 @@
+package com.company.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Finds the expressions in a while loop whose value cannot change while it
+// runs and gives them an Invariant, so the Interpreter computes them once per
+// run of the loop. Variables count as changing if anything in the loop
+// assigns or declares one of the same name. Calls can run any code, so with
+// them in the loop globals and captured variables count as changing too,
+// and so do properties, which assignments to any field also change. Getters
+// are not known until runtime; the Interpreter discards invariant values
+// when one runs.
+class LoopInvariants implements Expr.Visitor<Boolean>, Stmt.Visitor<Void> {
+    private final Set<String> assigned = new HashSet<>();
+    private boolean hasCalls = false;
+    private boolean hasSets = false;
+    private final List<Invariant> invariants = new ArrayList<>();
+
+    // Set while looking for what the loop changes, then cleared while
+    // looking for what it does not.
+    private boolean scanning = true;
+
+    void mark(Stmt.While loop) {
+        scan(loop.condition);
+        scan(loop.body);
+        scanning = false;
+
+        markIfInvariant(loop.condition);
+        loop.body.accept(this);
+        if (!invariants.isEmpty()) loop.invariants = invariants;
+    }
+
+    private void scan(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void scan(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private boolean check(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void markIfInvariant(Expr expr) {
+        if (expr == null) return;
+        if (check(expr)) mark(expr);
+    }
+
+    // Marks the invariant expression, or the parts of it worth marking.
+    private void mark(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            if (binary.invariant == null) {
+                binary.invariant = new Invariant();
+                invariants.add(binary.invariant);
+            }
+        } else if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr;
+            if (get.invariant == null) {
+                get.invariant = new Invariant();
+                invariants.add(get.invariant);
+            }
+        } else if (expr instanceof Expr.Unary) {
+            mark(((Expr.Unary) expr).right);
+        } else if (expr instanceof Expr.Logical) {
+            mark(((Expr.Logical) expr).left);
+            mark(((Expr.Logical) expr).right);
+        } else if (expr instanceof Expr.Ternary) {
+            mark(((Expr.Ternary) expr).expr);
+            mark(((Expr.Ternary) expr).thenBranch);
+            mark(((Expr.Ternary) expr).elseBranch);
+        }
+    }
+
+    // When only some operands are invariant, those are marked on their own.
+    private boolean operands(Expr... operands) {
+        boolean[] invariant = new boolean[operands.length];
+        boolean all = true;
+        for (int i = 0; i < operands.length; i++) {
+            invariant[i] = check(operands[i]);
+            all &= invariant[i];
+        }
+        if (all) return true;
+
+        for (int i = 0; i < operands.length; i++) {
+            if (invariant[i]) mark(operands[i]);
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (scanning) assigned.add(stmt.name.lexeme);
+        if (stmt.superclass != null) {
+            if (scanning) scan(stmt.superclass); else markIfInvariant(stmt.superclass);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (scanning) scan(stmt.expression); else markIfInvariant(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        if (scanning) assigned.add(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        if (scanning) scan(stmt.condition); else markIfInvariant(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        if (scanning) scan(stmt.expression); else markIfInvariant(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return null;
+        if (scanning) scan(stmt.value); else markIfInvariant(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (scanning) assigned.add(stmt.name.lexeme);
+        if (stmt.initializer == null) return null;
+        if (scanning) scan(stmt.initializer); else markIfInvariant(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        if (scanning) scan(stmt.condition); else markIfInvariant(stmt.condition);
+        stmt.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Boolean visitAssignExpr(Expr.Assign expr) {
+        if (scanning) {
+            assigned.add(expr.name.lexeme);
+            scan(expr.value);
+        } else {
+            markIfInvariant(expr.value);
+        }
+        return false;
+    }
+
+    @Override
+    public Boolean visitBinaryExpr(Expr.Binary expr) {
+        if (scanning) {
+            scan(expr.left);
+            scan(expr.right);
+            return false;
+        }
+        return operands(expr.left, expr.right);
+    }
+
+    // The body only runs when called, which makes the loop count as having
+    // calls anyway.
+    @Override
+    public Boolean visitFunctionExpr(Expr.Function expr) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitCallExpr(Expr.Call expr) {
+        if (scanning) {
+            hasCalls = true;
+            scan(expr.callee);
+            for (Expr argument : expr.arguments) scan(argument);
+        } else {
+            markIfInvariant(expr.callee);
+            for (Expr argument : expr.arguments) markIfInvariant(argument);
+        }
+        return false;
+    }
+
+    @Override
+    public Boolean visitSuperExpr(Expr.Super expr) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitThisExpr(Expr.This expr) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitGetExpr(Expr.Get expr) {
+        if (scanning) {
+            scan(expr.object);
+            return false;
+        }
+        if (hasCalls || hasSets) {
+            markIfInvariant(expr.object);
+            return false;
+        }
+        return check(expr.object);
+    }
+
+    @Override
+    public Boolean visitSetExpr(Expr.Set expr) {
+        if (scanning) {
+            hasSets = true;
+            scan(expr.object);
+            scan(expr.value);
+        } else {
+            markIfInvariant(expr.object);
+            markIfInvariant(expr.value);
+        }
+        return false;
+    }
+
+    @Override
+    public Boolean visitGroupingExpr(Expr.Grouping expr) {
+        if (scanning) {
+            scan(expr.expression);
+            return false;
+        }
+        return check(expr.expression);
+    }
+
+    @Override
+    public Boolean visitLiteralExpr(Expr.Literal expr) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitLogicalExpr(Expr.Logical expr) {
+        if (scanning) {
+            scan(expr.left);
+            scan(expr.right);
+            return false;
+        }
+        return operands(expr.left, expr.right);
+    }
+
+    @Override
+    public Boolean visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.PLUS_PLUS ||
+                expr.operator.type == TokenType.MINUS_MINUS) {
+            if (scanning && expr.right instanceof Expr.Variable) {
+                assigned.add(((Expr.Variable) expr.right).name.lexeme);
+            }
+            return false;
+        }
+
+        if (scanning) {
+            scan(expr.right);
+            return false;
+        }
+        return check(expr.right);
+    }
+
+    @Override
+    public Boolean visitTernaryExpr(Expr.Ternary expr) {
+        if (scanning) {
+            scan(expr.expr);
+            scan(expr.thenBranch);
+            scan(expr.elseBranch);
+            return false;
+        }
+        return operands(expr.expr, expr.thenBranch, expr.elseBranch);
+    }
+
+    @Override
+    public Boolean visitVariableExpr(Expr.Variable expr) {
+        if (assigned.contains(expr.name.lexeme)) return false;
+        return !hasCalls || !expr.isGlobal && !expr.isBoxed && !expr.isUpvalue;
+    }
+}
@@ -0,0 +1,30 @@
+package com.company.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class ObjClass extends ObjInstance {
+    final String name;
+    final ObjClass superclass;
+    final Map<String, ObjClosure> methods = new HashMap<>();
+
+    ObjClass(ObjClass metaclass, ObjClass superclass, String name) {
+        super(metaclass);
+        this.superclass = superclass;
+        this.name = name;
+    }
+
+    ObjClosure findMethod(String name) {
+        ObjClosure method = methods.get(name);
+        if (method != null) return method;
+
+        if (superclass != null) return superclass.findMethod(name);
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,21 @@
+package com.company.fail;
+
+class ObjFunction {
+    final String name;
+    final int arity;
+    final boolean isGetter;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+
+    ObjFunction(String name, int arity, boolean isGetter) {
+        this.name = name;
+        this.arity = arity;
+        this.isGetter = isGetter;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<fn>";
+        return "<fn " + name + ">";
+    }
+}
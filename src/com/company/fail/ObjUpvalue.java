@@ -0,0 +1,13 @@
+package com.company.fail;
+
+class ObjUpvalue {
+    // Index of the captured stack slot while the upvalue is open, -1 once
+    // the value has been moved into closed.
+    int location;
+    Object closed;
+    ObjUpvalue next;
+
+    ObjUpvalue(int location) {
+        this.location = location;
+    }
+}
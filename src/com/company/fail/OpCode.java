@@ -0,0 +1,51 @@
+package com.company.fail;
+
+final class OpCode {
+    static final byte CONSTANT = 0;
+    static final byte NONE = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte UNINITIALIZED = 4;
+    static final byte POP = 5;
+    static final byte DUP = 6;
+    static final byte GET_LOCAL = 7;
+    static final byte SET_LOCAL = 8;
+    static final byte GET_GLOBAL = 9;
+    static final byte DEFINE_GLOBAL = 10;
+    static final byte SET_GLOBAL = 11;
+    static final byte GET_UPVALUE = 12;
+    static final byte SET_UPVALUE = 13;
+    static final byte GET_PROPERTY = 14;
+    static final byte SET_PROPERTY = 15;
+    static final byte GET_SUPER = 16;
+    static final byte EQUAL = 17;
+    static final byte GREATER = 18;
+    static final byte GREATER_EQUAL = 19;
+    static final byte LESS = 20;
+    static final byte LESS_EQUAL = 21;
+    static final byte ADD = 22;
+    static final byte SUBTRACT = 23;
+    static final byte MULTIPLY = 24;
+    static final byte DIVIDE = 25;
+    static final byte POWER = 26;
+    static final byte NOT = 27;
+    static final byte NEGATE = 28;
+    static final byte INCREMENT = 29;
+    static final byte DECREMENT = 30;
+    static final byte COMPOUND = 31;
+    static final byte PRINT = 32;
+    static final byte JUMP = 33;
+    static final byte JUMP_IF_FALSE = 34;
+    static final byte LOOP = 35;
+    static final byte CALL = 36;
+    static final byte CLOSURE = 37;
+    static final byte CLOSE_UPVALUE = 38;
+    static final byte RETURN = 39;
+    static final byte CLASS = 40;
+    static final byte METHOD = 41;
+    static final byte CLASS_METHOD = 42;
+    static final byte ERROR = 43;
+
+    private OpCode() {
+    }
+}
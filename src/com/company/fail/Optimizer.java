@@ -0,0 +1,424 @@
+package com.company.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Rewrites a resolved tree into a simpler one that does the same. Operations
+// on literals are computed ahead of time, except those that would fail at
+// runtime, which are left for the Interpreter to report. Local variables that
+// are initialized to a literal and never assigned again are replaced by it.
+// Code that can never run, local variables that are never used and
+// expressions evaluated only for effects they do not have are removed.
+// Increments and comparisons of variables are marked with the
+// Superinstruction the Interpreter can run them as.
+// The result has to be resolved again before it is run.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Longest string a multiplication is computed ahead of time into.
+    private static final int MAX_FOLDED_LENGTH = 1024;
+
+    // Values of the declarations whose variables are replaced by literals.
+    private final Map<Stmt.Var, Object> constants = new HashMap<>();
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>();
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = optimize(statements.get(i));
+            if (isEmpty(statement)) continue;
+            result.add(statement);
+
+            if (alwaysJumps(statement)) break;
+        }
+        return result;
+    }
+
+    private static Stmt empty() {
+        return new Stmt.Block(new ArrayList<>());
+    }
+
+    private static boolean isEmpty(Stmt stmt) {
+        if (stmt instanceof Stmt.Block) return ((Stmt.Block) stmt).statements.isEmpty();
+        if (stmt instanceof Stmt.While && !((Stmt.While) stmt).isDoWhile) {
+            Expr condition = ((Stmt.While) stmt).condition;
+            return condition instanceof Expr.Literal &&
+                    !Interpreter.isTruthy(((Expr.Literal) condition).value);
+        }
+        return false;
+    }
+
+    // Whether the statement never completes normally, so the ones after it
+    // in the same block never run.
+    private static boolean alwaysJumps(Stmt stmt) {
+        if (stmt instanceof Stmt.Return || stmt instanceof Stmt.Break ||
+                stmt instanceof Stmt.Continue) {
+            return true;
+        }
+        if (stmt instanceof Stmt.Block) {
+            List<Stmt> statements = ((Stmt.Block) stmt).statements;
+            return !statements.isEmpty() &&
+                    alwaysJumps(statements.get(statements.size() - 1));
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            return ifStmt.elseBranch != null &&
+                    alwaysJumps(ifStmt.thenBranch) && alwaysJumps(ifStmt.elseBranch);
+        }
+        return false;
+    }
+
+    // Whether evaluating the expression can have no effect and cannot fail.
+    private static boolean isPure(Expr expr) {
+        return expr instanceof Expr.Literal || expr instanceof Expr.Function ||
+                expr instanceof Expr.This;
+    }
+
+    Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        if (stmt == null) return null;
+        return stmt.accept(this);
+    }
+
+    private List<Expr> optimizeAll(List<Expr> exprs) {
+        List<Expr> result = new ArrayList<>();
+        for (Expr expr : exprs) {
+            result.add(optimize(expr));
+        }
+        return result;
+    }
+
+    private List<Stmt.Function> optimizeMethods(List<Stmt.Function> methods) {
+        List<Stmt.Function> result = new ArrayList<>();
+        for (Stmt.Function method : methods) {
+            result.add((Stmt.Function) optimize(method));
+        }
+        return result;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(optimize(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        Expr superclass = stmt.superclass == null ? null : optimize(stmt.superclass);
+        return new Stmt.Class(stmt.name, superclass,
+                optimizeMethods(stmt.methods), optimizeMethods(stmt.classMethods));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (isPure(expression)) return empty();
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return new Stmt.Function(stmt.name, (Expr.Function) optimize(stmt.function));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal) {
+            if (Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+                return optimize(stmt.thenBranch);
+            }
+            return stmt.elseBranch == null ? empty() : optimize(stmt.elseBranch);
+        }
+
+        return new Stmt.If(condition,
+                optimize(stmt.thenBranch), optimize(stmt.elseBranch));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        // A local that is never read nor assigned again is not needed, only
+        // whatever its initializer does.
+        boolean isUnused = stmt.isFinal && !stmt.isRead;
+
+        if (stmt.initializer == null) return isUnused ? empty() : stmt;
+
+        Expr initializer = optimize(stmt.initializer);
+        if (isUnused) {
+            if (isPure(initializer)) return empty();
+            return new Stmt.Expression(initializer);
+        }
+
+        // Every read of it is replaced, so the variable itself goes too.
+        if (stmt.isFinal && initializer instanceof Expr.Literal) {
+            constants.put(stmt, ((Expr.Literal) initializer).value);
+            return empty();
+        }
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Stmt.While loop = new Stmt.While(optimize(stmt.condition),
+                optimize(stmt.body), stmt.isDoWhile);
+        new LoopInvariants().mark(loop);
+        return loop;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr.Assign assign = new Expr.Assign(expr.name, optimize(expr.value), expr.equals);
+        fuse(assign);
+        return assign;
+    }
+
+    private static void fuse(Expr.Assign assign) {
+        Expr value = assign.value;
+        Double step = null;
+        switch (assign.equals.type) {
+            case PLUS_EQUAL:
+                step = number(value);
+                break;
+            case MINUS_EQUAL:
+                step = number(value);
+                if (step != null) step = -step;
+                break;
+            case EQUAL:
+                if (!(value instanceof Expr.Binary)) break;
+                Expr.Binary binary = (Expr.Binary) value;
+                if (!isVariable(binary.left, assign.name)) break;
+                if (binary.operator.type == TokenType.PLUS) {
+                    step = number(binary.right);
+                } else if (binary.operator.type == TokenType.MINUS) {
+                    step = number(binary.right);
+                    if (step != null) step = -step;
+                }
+                break;
+        }
+
+        if (step == null) return;
+        assign.superinstruction = Superinstruction.INCREMENT;
+        assign.step = step;
+    }
+
+    private static void fuse(Expr.Binary binary) {
+        switch (binary.operator.type) {
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                break;
+            default:
+                return;
+        }
+
+        if (!(binary.left instanceof Expr.Variable)) return;
+        if (binary.right instanceof Expr.Variable) {
+            binary.superinstruction = Superinstruction.COMPARE_VARIABLES;
+        } else if (number(binary.right) != null) {
+            binary.superinstruction = Superinstruction.COMPARE_CONSTANT;
+        }
+    }
+
+    private static Double number(Expr expr) {
+        if (!(expr instanceof Expr.Literal)) return null;
+        Object value = ((Expr.Literal) expr).value;
+        return value instanceof Double ? (Double) value : null;
+    }
+
+    private static boolean isVariable(Expr expr, Token name) {
+        return expr instanceof Expr.Variable &&
+                ((Expr.Variable) expr).name.lexeme.equals(name.lexeme);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Expr folded = fold(expr.operator,
+                    ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+            if (folded != null) return folded;
+        }
+
+        Expr.Binary binary = new Expr.Binary(left, expr.operator, right);
+        fuse(binary);
+        return binary;
+    }
+
+    // Returns null if the operation fails at runtime.
+    private Expr fold(Token operator, Object left, Object right) {
+        switch (operator.type) {
+            case BANG_EQUAL:
+                return new Expr.Literal(!Interpreter.isEqual(left, right));
+            case EQUAL_EQUAL:
+                return new Expr.Literal(Interpreter.isEqual(left, right));
+            case COMMA:
+                return new Expr.Literal(right);
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return new Expr.Literal((String) left + (String) right);
+                }
+                break;
+            case STAR:
+                if (left instanceof Double && !(right instanceof Double)) {
+                    return multiplyString(Interpreter.stringify(right), (double) left);
+                }
+                if (!(left instanceof Double) && right instanceof Double) {
+                    return multiplyString(Interpreter.stringify(left), (double) right);
+                }
+                break;
+        }
+
+        if (!(left instanceof Double) || !(right instanceof Double)) return null;
+
+        double a = (double) left;
+        double b = (double) right;
+        switch (operator.type) {
+            case GREATER: return new Expr.Literal(a > b);
+            case GREATER_EQUAL: return new Expr.Literal(a >= b);
+            case LESS: return new Expr.Literal(a < b);
+            case LESS_EQUAL: return new Expr.Literal(a <= b);
+            case MINUS: return new Expr.Literal(a - b);
+            case PLUS: return new Expr.Literal(a + b);
+            case SLASH: return new Expr.Literal(a / b);
+            case STAR: return new Expr.Literal(a * b);
+            case STAR_STAR: return new Expr.Literal(Interpreter.power(a, b));
+        }
+
+        return null;
+    }
+
+    private Expr multiplyString(String s, double n) {
+        if (n % 1 != 0) return null;
+        int multiplier = (int) n;
+        if (multiplier < 0) multiplier = 0;
+        if ((long) s.length() * multiplier > MAX_FOLDED_LENGTH) return null;
+
+        return new Expr.Literal(s.repeat(multiplier));
+    }
+
+    @Override
+    public Expr visitFunctionExpr(Expr.Function expr) {
+        return new Expr.Function(expr.parameters, optimize(expr.body));
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        return new Expr.Call(optimize(expr.callee), expr.paren,
+                optimizeAll(expr.arguments));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(optimize(expr.object), expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(optimize(expr.object), expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+            if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).value;
+            // Negating anything but a number fails, muffins included.
+            if (expr.operator.type == TokenType.BANG) {
+                return new Expr.Literal(!Interpreter.isTruthy(value));
+            }
+            if (expr.operator.type == TokenType.MINUS && value instanceof Double) {
+                return new Expr.Literal(-(double) value);
+            }
+        }
+
+        Expr.Unary unary = new Expr.Unary(expr.operator, right, expr.postfix);
+        if ((expr.operator.type == TokenType.PLUS_PLUS ||
+                expr.operator.type == TokenType.MINUS_MINUS) &&
+                right instanceof Expr.Variable) {
+            unary.superinstruction = Superinstruction.INCREMENT;
+        }
+        return unary;
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr condition = optimize(expr.expr);
+        if (condition instanceof Expr.Literal) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) condition).value);
+            return optimize(truthy ? expr.thenBranch : expr.elseBranch);
+        }
+
+        return new Expr.Ternary(condition,
+                optimize(expr.thenBranch), optimize(expr.elseBranch));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if (expr.declaration != null && constants.containsKey(expr.declaration)) {
+            return new Expr.Literal(constants.get(expr.declaration));
+        }
+        return expr;
+    }
+}
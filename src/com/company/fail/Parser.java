@@ -203,7 +203,7 @@ class Parser {
             }
 
             if (condition == null) condition = new Expr.Literal(true);
-            body = new Stmt.While(condition, body);
+            body = new Stmt.While(condition, body, false);
 
             if (initializer != null) {
                 List<Stmt> stmts = new ArrayList<>();
@@ -259,11 +259,7 @@ class Parser {
             consume(RIGHT_PAREN, "Expect ')' after condition.");
             consume(SEMICOLON, "Expect ';' after do-while statement.");
 
-            body = new Stmt.Block(Arrays.asList(
-                    body,
-                    new Stmt.While(condition, body)));
-
-            return body;
+            return new Stmt.While(condition, body, true);
         } finally {
             loopLevel--;
         }
@@ -278,7 +274,7 @@ class Parser {
             loopLevel++;
             Stmt body = statement();
 
-            return new Stmt.While(condition, body);
+            return new Stmt.While(condition, body, false);
         } finally {
             loopLevel--;
         }
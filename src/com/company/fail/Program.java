@@ -0,0 +1,77 @@
+package com.company.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// A script compiled ahead of time by "jfail --compile": its tree, as analysis
+// left it, and the nodes of the classes the Jit compiled its functions into,
+// which the jar carries next to it. Running it needs no scanning, parsing or
+// resolving, and its functions start out compiled. The top-level code is
+// tree-walked, as compiled code running it is no faster.
+class Program {
+    private final List<Stmt> statements;
+    // Function i is compiled into the class named function(i), whose
+    // constructor takes nodes.get(i).
+    private final List<Expr.Function> functions;
+    private final List<Object[]> nodes;
+
+    Program(List<Stmt> statements) {
+        this.statements = statements;
+        this.functions = new ArrayList<>();
+        this.nodes = new ArrayList<>();
+    }
+
+    private Program(TreeReader in) throws IOException {
+        statements = in.readList(Stmt.class);
+        functions = in.readList(Expr.Function.class);
+        nodes = in.readList(Object[].class);
+    }
+
+    static String function(int index) {
+        return Jit.PACKAGE + "Function" + index;
+    }
+
+    int functionCount() {
+        return functions.size();
+    }
+
+    void addFunction(Expr.Function function, Object[] nodes) {
+        functions.add(function);
+        this.nodes.add(nodes);
+    }
+
+    static Program read(InputStream input) throws IOException {
+        TreeReader in = new TreeReader(input);
+        Program program = new Program(in);
+        in.readState();
+        return program;
+    }
+
+    void write(OutputStream output) throws IOException {
+        TreeWriter out = new TreeWriter(output);
+        out.write(statements);
+        out.write(functions);
+        out.write(nodes);
+        out.writeState();
+    }
+
+    void run(Interpreter interpreter) throws IOException {
+        try {
+            for (int i = 0; i < functions.size(); i++) {
+                functions.get(i).compiled = load(function(i), interpreter, nodes.get(i));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Compiled code is missing from the jar.", e);
+        }
+        interpreter.interpret(statements);
+    }
+
+    private static CompiledCode load(String name, Interpreter interpreter, Object[] nodes)
+            throws ReflectiveOperationException {
+        Class<?> compiled = Class.forName(name.replace('/', '.'));
+        return Jit.load(compiled, interpreter, nodes);
+    }
+}
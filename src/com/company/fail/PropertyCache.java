@@ -0,0 +1,80 @@
+package com.company.fail;
+
+// An inline cache for one property access site. For the last few shapes seen
+// there it remembers the index of the field, or the method found instead when
+// instances of that shape have no such field. Assignment sites remember the
+// shape an instance moves to when the assignment adds the field. Sites that
+// see more shapes than that stop caching and always do the full lookup.
+class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final Shape[] shapes = new Shape[MAX_ENTRIES];
+    private final Shape[] transitions = new Shape[MAX_ENTRIES];
+    private final int[] indices = new int[MAX_ENTRIES];
+    private final Function[] methods = new Function[MAX_ENTRIES];
+    private int count = 0;
+
+    Object get(Instance instance, Token name) {
+        int entry = lookup(instance, name);
+        if (entry == -1) return instance.get(name);
+
+        if (indices[entry] != -1) return instance.field(indices[entry]);
+        if (methods[entry] != null) return methods[entry].bind(instance);
+        return instance.get(name);
+    }
+
+    // Returns the unbound method the name refers to, or null if it refers to a
+    // field or to nothing.
+    Function method(Instance instance, Token name) {
+        int entry = lookup(instance, name);
+        if (entry != -1) return methods[entry];
+
+        if (instance.shape().indexOf(name.lexeme) != -1) return null;
+        return instance.klass().findMethod(name.lexeme);
+    }
+
+    // Whether there is an entry for the instance's shape.
+    boolean contains(Instance instance) {
+        Shape shape = instance.shape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) return true;
+        }
+        return false;
+    }
+
+    void set(Instance instance, Token name, Object value) {
+        Shape shape = instance.shape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (transitions[i] != shape) instance.reshape(transitions[i]);
+                instance.setField(indices[i], value);
+                return;
+            }
+        }
+
+        instance.set(name, value);
+        if (count < MAX_ENTRIES) {
+            shapes[count] = shape;
+            transitions[count] = instance.shape();
+            indices[count] = instance.shape().indexOf(name.lexeme);
+            count++;
+        }
+    }
+
+    // Returns the entry for the instance's shape, adding one if there is room,
+    // or -1 if there is none.
+    private int lookup(Instance instance, Token name) {
+        Shape shape = instance.shape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) return i;
+        }
+        if (count == MAX_ENTRIES) return -1;
+
+        int index = shape.indexOf(name.lexeme);
+        shapes[count] = shape;
+        transitions[count] = shape;
+        indices[count] = index;
+        methods[count] = index == -1 ? instance.klass().findMethod(name.lexeme) : null;
+        return count++;
+    }
+}
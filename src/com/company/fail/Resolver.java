@@ -1,20 +1,19 @@
 package com.company.fail;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Variable>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private boolean preventAssignment = false;
     private ClassType currentClass = ClassType.NONE;
-
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
+    // Off when resolving a tree the Optimizer has rewritten, which would
+    // otherwise repeat the warnings or add ones about what it removed.
+    private final boolean reportWarnings;
 
     private enum ClassType {
         NONE,
@@ -29,12 +28,51 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         METHOD
     }
 
+    // Each function gets a single frame at runtime. Blocks inside it are
+    // flattened into that frame, so only functions, and blocks or superclass
+    // scopes outside of any function, are roots that own a frame.
+    private static class Scope {
+        final Scope enclosing;
+        final Scope root;
+        final Map<String, Variable> variables = new HashMap<>();
+        final List<Variable> declared = new ArrayList<>();
+        final Expr.Function function;
+        // For roots, the next free slot in the frame and the most slots ever
+        // in use. For blocks, the first slot they declare into.
+        int next = 0;
+        int size = 0;
+        final int base;
+        // Variables of enclosing functions this function refers to.
+        final List<Variable> upvalues = new ArrayList<>();
+        final List<Integer> captures = new ArrayList<>();
+
+        private Scope(Scope enclosing, boolean isRoot, Expr.Function function) {
+            this.enclosing = enclosing;
+            this.root = isRoot ? this : enclosing.root;
+            this.function = function;
+            this.base = isRoot ? 0 : root.next;
+        }
+    }
+
     private static class Variable {
         final Token name;
+        final Scope scope;
+        final int slot;
+        final Stmt declaration;
+        // Local references that need to know whether the variable is boxed.
+        final List<Expr> references = new ArrayList<>();
+        // Set once a nested function refers to it. Such variables are stored
+        // in a Cell shared with the closures.
+        boolean captured = false;
+        // Set once anything other than the declaration assigns to it.
+        boolean assigned = false;
         VariableState state;
 
-        private Variable(Token name, VariableState state) {
+        private Variable(Token name, Scope scope, int slot, Stmt declaration, VariableState state) {
             this.name = name;
+            this.scope = scope;
+            this.slot = slot;
+            this.declaration = declaration;
             this.state = state;
         }
     }
@@ -45,6 +83,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         READ
     }
 
+    Resolver() {
+        this(true);
+    }
+
+    Resolver(boolean reportWarnings) {
+        this.reportWarnings = reportWarnings;
+    }
+
     void resolve(List<Stmt> statements) {
         for (Stmt statement : statements) {
             resolve(statement);
@@ -53,15 +99,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        stmt.flattened = !scopes.isEmpty();
+        beginScope(!stmt.flattened, null);
         resolve(stmt.statements);
+        if (!stmt.flattened) stmt.size = scopes.peek().size;
         endScope();
         return null;
     }
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
@@ -69,12 +117,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (stmt.superclass != null) {
             currentClass = ClassType.SUBCLASS;
             resolve(stmt.superclass);
-            beginScope();
-            scopes.peek().put("super", createSystemVariable("super", true));
+            beginScope(scopes.isEmpty(), null);
+            // Only methods can refer to "super", so it is always captured.
+            Variable variable = declareSystemVariable("super");
+            variable.captured = true;
+            stmt.superSlot = variable.slot;
         }
 
-        beginScope();
-        scopes.peek().put("this", createSystemVariable("this", true));
+        for (Stmt.Function method : stmt.classMethods) {
+            resolveFunction(method, FunctionType.METHOD);
+        }
 
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
@@ -84,15 +136,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        for (Stmt.Function method : stmt.classMethods) {
-            beginScope();
-            scopes.peek().put("this", createSystemVariable("this", true));
-            resolveFunction(method, FunctionType.METHOD);
-            endScope();
-        }
-
-        endScope();
-
         if (stmt.superclass != null) endScope();
 
         currentClass = enclosingClass;
@@ -107,7 +150,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -143,14 +186,33 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
 
             resolve(stmt.value);
+            stmt.isTailCall = endsInCall(stmt.value);
         }
 
         return null;
     }
 
+    // Whether the value of the expression can be that of a call, which a
+    // return statement then makes in place of the returning one: a call
+    // itself, or one in a branch of ?: or on the right of "and" or "or".
+    private static boolean endsInCall(Expr expr) {
+        if (expr instanceof Expr.Call) return true;
+        if (expr instanceof Expr.Grouping) {
+            return endsInCall(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Ternary) {
+            Expr.Ternary ternary = (Expr.Ternary) expr;
+            return endsInCall(ternary.thenBranch) || endsInCall(ternary.elseBranch);
+        }
+        if (expr instanceof Expr.Logical) {
+            return endsInCall(((Expr.Logical) expr).right);
+        }
+        return false;
+    }
+
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -160,10 +222,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.isDoWhile) resolve(stmt.body);
         preventAssignment = true;
         resolve(stmt.condition);
         preventAssignment = false;
-        resolve(stmt.body);
+        if (!stmt.isDoWhile) resolve(stmt.body);
         return null;
     }
 
@@ -180,13 +243,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty() &&
-                scopes.peek().containsKey(expr.name.lexeme) &&
-                scopes.peek().get(expr.name.lexeme).state == VariableState.DECLARED) {
+                scopes.peek().variables.containsKey(expr.name.lexeme) &&
+                scopes.peek().variables.get(expr.name.lexeme).state == VariableState.DECLARED) {
             Fail.error(expr.name,
                     "Cannot read local variable in its own initializer.");
         }
 
-        resolveReference(expr, expr.name, true);
+        Variable variable = resolveReference(expr.name, true);
+        expr.isGlobal = variable == null;
+        expr.declaration = null;
+        if (variable != null) {
+            expr.isUpvalue = variable.scope.root != scopes.peek().root;
+            expr.slot = expr.isUpvalue ? upvalue(scopes.peek().root, variable) : variable.slot;
+            if (!expr.isUpvalue) variable.references.add(expr);
+            if (variable.declaration instanceof Stmt.Var) {
+                expr.declaration = (Stmt.Var) variable.declaration;
+            }
+        }
         return null;
     }
 
@@ -196,7 +269,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Fail.error(expr.equals, "Assignment is not allowed within if, loop or ternary condition.");
 
         resolve(expr.value);
-        resolveReference(expr, expr.name, false);
+        Variable variable = resolveReference(expr.name, false);
+        expr.isGlobal = variable == null;
+        if (variable != null) {
+            variable.assigned = true;
+            expr.isUpvalue = variable.scope.root != scopes.peek().root;
+            expr.slot = expr.isUpvalue ? upvalue(scopes.peek().root, variable) : variable.slot;
+            if (!expr.isUpvalue) variable.references.add(expr);
+        }
         return null;
     }
 
@@ -212,12 +292,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = FunctionType.FUNCTION;
 
-        beginScope();
+        beginScope(true, expr);
         for (Token param : expr.parameters) {
-            declare(param);
+            declare(param, null);
             define(param);
         }
         resolve(expr.body);
+        finishFunction(expr);
         endScope();
         currentFunction = enclosingFunction;
         return null;
@@ -255,9 +336,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         } else if (currentClass != ClassType.SUBCLASS) {
             Fail.error(expr.keyword,
                     "Cannot use 'super' in a class with no superclass.");
+        } else {
+            expr.slot = upvalue(scopes.peek().root, resolveReference(expr.keyword, true));
+            expr.receiver = new Expr.This(
+                    new Token(TokenType.THIS, "this", null, expr.keyword.line));
+            resolve(expr.receiver);
         }
 
-        resolveReference(expr, expr.keyword, true);
         return null;
     }
 
@@ -268,7 +353,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                     "Cannot use 'this' outside of a class.");
             return null;
         }
-        resolveReference(expr, expr.keyword, true);
+
+        Variable variable = resolveReference(expr.keyword, true);
+        expr.isUpvalue = variable.scope.root != scopes.peek().root;
+        expr.slot = expr.isUpvalue ? upvalue(scopes.peek().root, variable) : variable.slot;
+        if (!expr.isUpvalue) variable.references.add(expr);
         return null;
     }
 
@@ -292,6 +381,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
+        if ((expr.operator.type == TokenType.PLUS_PLUS ||
+                expr.operator.type == TokenType.MINUS_MINUS) &&
+                expr.right instanceof Expr.Variable) {
+            Variable variable = resolveReference(((Expr.Variable) expr.right).name, false);
+            if (variable != null) variable.assigned = true;
+        }
         resolve(expr.right);
         return null;
     }
@@ -318,67 +413,162 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
-        beginScope();
+        beginScope(true, function.function);
+        if (type != FunctionType.FUNCTION) declareSystemVariable("this");
         if (function.function.parameters != null) {
             for (Token param : function.function.parameters) {
-                declare(param);
+                declare(param, null);
                 define(param);
             }
         }
         resolve(function.function.body);
+        finishFunction(function.function);
         endScope();
         currentFunction = enclosingFunction;
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<String, Variable>());
+    private void beginScope(boolean isRoot, Expr.Function function) {
+        Scope enclosing = scopes.isEmpty() ? null : scopes.peek();
+        scopes.push(new Scope(enclosing, isRoot, function));
     }
 
     private void endScope() {
-        Map<String, Variable> scope = scopes.pop();
+        Scope scope = scopes.pop();
 
-        for (Map.Entry<String, Variable> entry : scope.entrySet()) {
-            if (entry.getValue().state == VariableState.DEFINED) {
+        for (Map.Entry<String, Variable> entry : scope.variables.entrySet()) {
+            if (reportWarnings && entry.getValue().state == VariableState.DEFINED) {
                 Fail.warning(entry.getValue().name, "Local variable is not used.");
             }
         }
+
+        // Every reference has been seen, so it is known which are boxed.
+        for (Variable variable : scope.declared) {
+            if (variable.declaration instanceof Stmt.Var) {
+                ((Stmt.Var) variable.declaration).slot = variable.slot;
+                ((Stmt.Var) variable.declaration).isBoxed = variable.captured;
+                ((Stmt.Var) variable.declaration).isFinal = !variable.assigned;
+                ((Stmt.Var) variable.declaration).isRead = variable.state == VariableState.READ;
+            } else if (variable.declaration instanceof Stmt.Function) {
+                ((Stmt.Function) variable.declaration).slot = variable.slot;
+                ((Stmt.Function) variable.declaration).isBoxed = variable.captured;
+            } else if (variable.declaration instanceof Stmt.Class) {
+                ((Stmt.Class) variable.declaration).slot = variable.slot;
+                ((Stmt.Class) variable.declaration).isBoxed = variable.captured;
+            }
+
+            for (Expr reference : variable.references) {
+                if (reference instanceof Expr.Variable) {
+                    ((Expr.Variable) reference).isBoxed = variable.captured;
+                } else if (reference instanceof Expr.Assign) {
+                    ((Expr.Assign) reference).isBoxed = variable.captured;
+                } else if (reference instanceof Expr.This) {
+                    ((Expr.This) reference).isBoxed = variable.captured;
+                }
+            }
+        }
+
+        // Slots of a closed block can be reused by the blocks that follow it.
+        if (scope.root != scope) scope.root.next = scope.base;
     }
 
-    private void declare(Token name) {
+    private void finishFunction(Expr.Function function) {
+        Scope scope = scopes.peek();
+        function.size = scope.size;
+
+        // Small functions and getters that only return a value are evaluated
+        // in place of their body, unless the Interpreter can run that value
+        // as a tail call.
+        function.result = null;
+        if (function.body.size() == 1 && function.body.get(0) instanceof Stmt.Return) {
+            Stmt.Return stmt = (Stmt.Return) function.body.get(0);
+            if (stmt.value != null && !stmt.isTailCall) function.result = stmt.value;
+        }
+
+        function.captures = new int[scope.captures.size()];
+        for (int i = 0; i < function.captures.length; i++) {
+            function.captures[i] = scope.captures.get(i);
+        }
+
+        // Parameters (and "this") are stored as passed in unless a closure
+        // captures them, in which case the call boxes them on entry. They are
+        // the variables of the scope declared without a statement; the others
+        // are boxed by their declaration.
+        List<Integer> boxed = new ArrayList<>();
+        for (Variable variable : scope.declared) {
+            if (variable.captured && variable.declaration == null) boxed.add(variable.slot);
+        }
+        function.boxedParameters = new int[boxed.size()];
+        for (int i = 0; i < function.boxedParameters.length; i++) {
+            function.boxedParameters[i] = boxed.get(i);
+        }
+    }
+
+    private void declare(Token name, Stmt declaration) {
         if (scopes.isEmpty()) return;
 
-        Map<String, Variable> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
+        Scope scope = scopes.peek();
+        if (scope.variables.containsKey(name.lexeme)) {
             Fail.error(name,
                     "Variable with this name already declared in this scope.");
         }
 
-        scope.put(name.lexeme, new Variable(name, VariableState.DECLARED));
+        Scope root = scope.root;
+        Variable variable = new Variable(name, scope, root.next++, declaration, VariableState.DECLARED);
+        if (root.next > root.size) root.size = root.next;
+        scope.variables.put(name.lexeme, variable);
+        scope.declared.add(variable);
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().get(name.lexeme).state = VariableState.DEFINED;
+        scopes.peek().variables.get(name.lexeme).state = VariableState.DEFINED;
     }
 
-    private void resolveReference(Expr expr, Token name, boolean isRead) {
+    // Returns null if the name is not found and is assumed to be global.
+    private Variable resolveReference(Token name, boolean isRead) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-
+            Variable variable = scopes.get(i).variables.get(name.lexeme);
+            if (variable != null) {
                 // Mark it used.
                 if (isRead) {
-                    scopes.get(i).get(name.lexeme).state = VariableState.READ;
+                    variable.state = VariableState.READ;
                 }
-                return;
+                return variable;
             }
         }
 
         // Not found. Assume it is global.
-        interpreter.resolve(expr, scopes.size());
+        return null;
+    }
+
+    // Returns the index of the variable in the upvalues of the function with
+    // the given root scope, adding it and threading it through any functions
+    // in between if needed.
+    private int upvalue(Scope function, Variable variable) {
+        int index = function.upvalues.indexOf(variable);
+        if (index != -1) return index;
+
+        // A non-negative capture is a slot in the enclosing frame, a negative
+        // one is the complement of an index into the enclosing upvalues.
+        Scope enclosing = function.enclosing.root;
+        int capture;
+        if (variable.scope.root == enclosing) {
+            variable.captured = true;
+            capture = variable.slot;
+        } else {
+            capture = ~upvalue(enclosing, variable);
+        }
+
+        function.upvalues.add(variable);
+        function.captures.add(capture);
+        return function.upvalues.size() - 1;
     }
 
-    private Variable createSystemVariable(String name, Object value) {
-        return new Variable(new Token(TokenType.IDENTIFIER, name, value, 0), VariableState.READ);
+    // System variables are always the first entry in their scope.
+    private Variable declareSystemVariable(String name) {
+        declare(new Token(TokenType.IDENTIFIER, name, null, 0), null);
+        Variable variable = scopes.peek().variables.get(name);
+        variable.state = VariableState.READ;
+        return variable;
     }
 }
@@ -7,4 +7,8 @@ class RuntimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    RuntimeError(int line, String message) {
+        this(new Token(TokenType.EOF, "", null, line), message);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package com.company.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The layout of an instance's fields. Instances that got the same fields in
+// the same order share a Shape, which maps each field name to its index in
+// the instance's value array. Adding a field moves to a child shape, and
+// children are cached so every such instance ends up on the same one.
+class Shape {
+
+    private final Map<String, Integer> indices;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    private Shape(Map<String, Integer> indices) {
+        this.indices = indices;
+    }
+
+    static Shape root() {
+        return new Shape(new HashMap<>());
+    }
+
+    int size() {
+        return indices.size();
+    }
+
+    // Returns -1 if instances of this shape have no such field.
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    Shape withField(String name) {
+        Shape shape = transitions.get(name);
+        if (shape == null) {
+            Map<String, Integer> childIndices = new HashMap<>(indices);
+            childIndices.put(name, indices.size());
+            shape = new Shape(childIndices);
+            transitions.put(name, shape);
+        }
+        return shape;
+    }
+}
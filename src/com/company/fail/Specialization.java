@@ -0,0 +1,10 @@
+package com.company.fail;
+
+// Operand types a node has settled on. A node starts out without one, picks
+// one from the operands it sees on its first execution and drops to GENERIC
+// for good as soon as that stops holding.
+enum Specialization {
+    NUMBERS,
+    STRINGS,
+    GENERIC
+}
@@ -0,0 +1,22 @@
+package com.company.fail;
+
+// Counts of how one Interpreter made its calls, reported by --stats.
+class Stats {
+    // Calls of anything but a method of an instance, whose callee is looked
+    // up in the CallCache of the site.
+    long callHits = 0;
+    long callMisses = 0;
+    // Calls of the form object.method(...), whose method is looked up in the
+    // PropertyCache of the property.
+    long methodHits = 0;
+    long methodMisses = 0;
+    // Calls and getters run as the body the Inliner put in their place.
+    long inlined = 0;
+
+    @Override
+    public String toString() {
+        return "call cache: " + callHits + " hits, " + callMisses + " misses\n" +
+                "method cache: " + methodHits + " hits, " + methodMisses + " misses\n" +
+                "inlined calls: " + inlined;
+    }
+}
@@ -1,5 +1,6 @@
 package com.company.fail;
 
+import java.io.IOException;
 import java.util.List;
 
 abstract class Stmt {
@@ -22,11 +23,36 @@ abstract class Stmt {
       this.statements = statements;
     }
 
+    static Block read(TreeReader in) throws IOException {
+      return new Block(
+          in.readList(Stmt.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBlockStmt(this);
     }
 
     final List<Stmt> statements;
+    boolean flattened;
+    int size;
+
+    int kind() {
+      return 0;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(statements);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeBoolean(flattened);
+      out.writeInt(size);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      flattened = in.readBoolean();
+      size = in.readInt();
+    }
   }
 
   static class Class extends Stmt {
@@ -37,6 +63,14 @@ abstract class Stmt {
       this.classMethods = classMethods;
     }
 
+    static Class read(TreeReader in) throws IOException {
+      return new Class(
+          in.read(Token.class),
+          in.read(Expr.class),
+          in.readList(Stmt.Function.class),
+          in.readList(Stmt.Function.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitClassStmt(this);
     }
@@ -45,6 +79,32 @@ abstract class Stmt {
     final Expr superclass;
     final List<Stmt.Function> methods;
     final List<Stmt.Function> classMethods;
+    int slot;
+    boolean isBoxed;
+    int superSlot;
+
+    int kind() {
+      return 1;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(name);
+      out.write(superclass);
+      out.write(methods);
+      out.write(classMethods);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeInt(slot);
+      out.writeBoolean(isBoxed);
+      out.writeInt(superSlot);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      slot = in.readInt();
+      isBoxed = in.readBoolean();
+      superSlot = in.readInt();
+    }
   }
 
   static class Expression extends Stmt {
@@ -52,11 +112,30 @@ abstract class Stmt {
       this.expression = expression;
     }
 
+    static Expression read(TreeReader in) throws IOException {
+      return new Expression(
+          in.read(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitExpressionStmt(this);
     }
 
     final Expr expression;
+
+    int kind() {
+      return 2;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(expression);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
   }
 
   static class Function extends Stmt {
@@ -65,12 +144,39 @@ abstract class Stmt {
       this.function = function;
     }
 
+    static Function read(TreeReader in) throws IOException {
+      return new Function(
+          in.read(Token.class),
+          in.read(Expr.Function.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionStmt(this);
     }
 
     final Token name;
     final Expr.Function function;
+    int slot;
+    boolean isBoxed;
+
+    int kind() {
+      return 3;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(name);
+      out.write(function);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeInt(slot);
+      out.writeBoolean(isBoxed);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      slot = in.readInt();
+      isBoxed = in.readBoolean();
+    }
   }
 
   static class If extends Stmt {
@@ -80,6 +186,13 @@ abstract class Stmt {
       this.elseBranch = elseBranch;
     }
 
+    static If read(TreeReader in) throws IOException {
+      return new If(
+          in.read(Expr.class),
+          in.read(Stmt.class),
+          in.read(Stmt.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitIfStmt(this);
     }
@@ -87,6 +200,22 @@ abstract class Stmt {
     final Expr condition;
     final Stmt thenBranch;
     final Stmt elseBranch;
+
+    int kind() {
+      return 4;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(condition);
+      out.write(thenBranch);
+      out.write(elseBranch);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
   }
 
   static class Print extends Stmt {
@@ -94,11 +223,30 @@ abstract class Stmt {
       this.expression = expression;
     }
 
+    static Print read(TreeReader in) throws IOException {
+      return new Print(
+          in.read(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitPrintStmt(this);
     }
 
     final Expr expression;
+
+    int kind() {
+      return 5;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(expression);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
   }
 
   static class Return extends Stmt {
@@ -107,12 +255,36 @@ abstract class Stmt {
       this.value = value;
     }
 
+    static Return read(TreeReader in) throws IOException {
+      return new Return(
+          in.read(Token.class),
+          in.read(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitReturnStmt(this);
     }
 
     final Token keyword;
     final Expr value;
+    boolean isTailCall;
+
+    int kind() {
+      return 6;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(keyword);
+      out.write(value);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeBoolean(isTailCall);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      isTailCall = in.readBoolean();
+    }
   }
 
   static class Var extends Stmt {
@@ -121,18 +293,59 @@ abstract class Stmt {
       this.initializer = initializer;
     }
 
+    static Var read(TreeReader in) throws IOException {
+      return new Var(
+          in.read(Token.class),
+          in.read(Expr.class));
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitVarStmt(this);
     }
 
     final Token name;
     final Expr initializer;
+    int slot;
+    boolean isBoxed;
+    boolean isFinal;
+    boolean isRead;
+
+    int kind() {
+      return 7;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(name);
+      out.write(initializer);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.writeInt(slot);
+      out.writeBoolean(isBoxed);
+      out.writeBoolean(isFinal);
+      out.writeBoolean(isRead);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      slot = in.readInt();
+      isBoxed = in.readBoolean();
+      isFinal = in.readBoolean();
+      isRead = in.readBoolean();
+    }
   }
 
   static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+    While(Expr condition, Stmt body, boolean isDoWhile) {
       this.condition = condition;
       this.body = body;
+      this.isDoWhile = isDoWhile;
+    }
+
+    static While read(TreeReader in) throws IOException {
+      return new While(
+          in.read(Expr.class),
+          in.read(Stmt.class),
+          in.readBoolean());
     }
 
     <R> R accept(Visitor<R> visitor) {
@@ -141,27 +354,106 @@ abstract class Stmt {
 
     final Expr condition;
     final Stmt body;
+    final boolean isDoWhile;
+    List<Invariant> invariants;
+
+    int kind() {
+      return 8;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+      out.write(condition);
+      out.write(body);
+      out.writeBoolean(isDoWhile);
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+      out.write(invariants);
+    }
+
+    void readState(TreeReader in) throws IOException {
+      invariants = in.readList(Invariant.class);
+    }
   }
 
   static class Break extends Stmt {
     Break() {
     }
 
+    static Break read(TreeReader in) throws IOException {
+      return new Break();
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBreakStmt(this);
     }
 
+
+    int kind() {
+      return 9;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
   }
 
   static class Continue extends Stmt {
     Continue() {
     }
 
+    static Continue read(TreeReader in) throws IOException {
+      return new Continue();
+    }
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitContinueStmt(this);
     }
 
+
+    int kind() {
+      return 10;
+    }
+
+    void writeFields(TreeWriter out) throws IOException {
+    }
+
+    void writeState(TreeWriter out) throws IOException {
+    }
+
+    void readState(TreeReader in) throws IOException {
+    }
+  }
+
+  static Stmt read(TreeReader in, int kind) throws IOException {
+    switch (kind) {
+      case 0: return Block.read(in);
+      case 1: return Class.read(in);
+      case 2: return Expression.read(in);
+      case 3: return Function.read(in);
+      case 4: return If.read(in);
+      case 5: return Print.read(in);
+      case 6: return Return.read(in);
+      case 7: return Var.read(in);
+      case 8: return While.read(in);
+      case 9: return Break.read(in);
+      case 10: return Continue.read(in);
+    }
+    throw new IOException("Unknown kind of Stmt.");
   }
 
   abstract <R> R accept(Visitor<R> visitor);
+
+  abstract int kind();
+
+  abstract void writeFields(TreeWriter out) throws IOException;
+
+  abstract void writeState(TreeWriter out) throws IOException;
+
+  abstract void readState(TreeReader in) throws IOException;
 }
@@ -0,0 +1,14 @@
+package com.company.fail;
+
+// Common shapes of expressions that the Interpreter runs as a single
+// operation, reading and writing the variables involved itself. They only
+// cover variables holding numbers; anything else is run the usual way.
+enum Superinstruction {
+    // x = x + n, x = x - n, x += n and x -= n with a number literal n, and
+    // ++ and -- on a variable.
+    INCREMENT,
+    // A variable compared with a number literal.
+    COMPARE_CONSTANT,
+    // Two variables compared with each other.
+    COMPARE_VARIABLES
+}
@@ -0,0 +1,133 @@
+package com.company.fail;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static com.company.fail.TreeWriter.*;
+
+// Reads back what TreeWriter wrote, in the same order.
+class TreeReader {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final DataInputStream in;
+    private final List<Object> seen = new ArrayList<>();
+    private final Queue<Object> pending = new ArrayDeque<>();
+
+    TreeReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    // Reads the rest of the fields of the nodes read so far.
+    void readState() throws IOException {
+        while (!pending.isEmpty()) {
+            Object node = pending.remove();
+            if (node instanceof Expr) {
+                ((Expr) node).readState(this);
+            } else {
+                ((Stmt) node).readState(this);
+            }
+        }
+    }
+
+    <T> T read(Class<T> type) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == ENUM) return type.cast(type.getEnumConstants()[in.readShort()]);
+
+        Object value = read(tag);
+        if (value != null && !type.isInstance(value)) {
+            throw new IOException("Expected " + type.getName() + ".");
+        }
+        return type.cast(value);
+    }
+
+    <T> List<T> readList(Class<T> type) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == NULL) return null;
+        if (tag != LIST) throw new IOException("Expected a list.");
+
+        int size = in.readInt();
+        List<T> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) list.add(read(type));
+        return list;
+    }
+
+    int readInt() throws IOException {
+        return in.readInt();
+    }
+
+    boolean readBoolean() throws IOException {
+        return in.readBoolean();
+    }
+
+    double readDouble() throws IOException {
+        return in.readDouble();
+    }
+
+    private Object read(int tag) throws IOException {
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case NUMBER:
+                return in.readDouble();
+            case STRING:
+                return readString();
+            case TOKEN: {
+                TokenType type = TOKEN_TYPES[in.readUnsignedByte()];
+                String lexeme = read(String.class);
+                Object literal = read(Object.class);
+                return new Token(type, lexeme, literal, in.readInt());
+            }
+            case LIST: {
+                int size = in.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) list.add(read(Object.class));
+                return list;
+            }
+            case ARRAY: {
+                Object[] array = new Object[in.readInt()];
+                for (int i = 0; i < array.length; i++) array[i] = read(Object.class);
+                return array;
+            }
+            case INTS: {
+                int[] array = new int[in.readInt()];
+                for (int i = 0; i < array.length; i++) array[i] = in.readInt();
+                return array;
+            }
+            case EXPR:
+                return add(Expr.read(this, in.readUnsignedByte()));
+            case STMT:
+                return add(Stmt.read(this, in.readUnsignedByte()));
+            case INVARIANT: {
+                Invariant invariant = new Invariant();
+                seen.add(invariant);
+                return invariant;
+            }
+            case SEEN:
+                return seen.get(in.readInt());
+        }
+        throw new IOException("Unknown tag " + tag + ".");
+    }
+
+    private Object add(Object node) {
+        seen.add(node);
+        pending.add(node);
+        return node;
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
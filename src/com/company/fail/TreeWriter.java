@@ -0,0 +1,140 @@
+package com.company.fail;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+// Writes analyzed trees, with everything the Resolver, Optimizer and
+// TypeInference filled in, for TreeReader to read back without going through
+// any of them again. Nodes and Invariants keep their identity: one seen
+// before is written as its index among those written so far. A node's
+// constructor fields are written where it is first seen, and the rest once
+// the current value has been written, as they may refer to nodes anywhere.
+class TreeWriter {
+    static final int NULL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+    static final int TOKEN = 5;
+    static final int LIST = 6;
+    static final int ARRAY = 7;
+    static final int INTS = 8;
+    static final int ENUM = 9;
+    static final int EXPR = 10;
+    static final int STMT = 11;
+    static final int INVARIANT = 12;
+    static final int SEEN = 13;
+
+    private final DataOutputStream out;
+    private final Map<Object, Integer> seen = new IdentityHashMap<>();
+    private final Queue<Object> pending = new ArrayDeque<>();
+
+    TreeWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    // Writes the rest of the fields of the nodes written so far, which ends
+    // the tree.
+    void writeState() throws IOException {
+        while (!pending.isEmpty()) {
+            Object node = pending.remove();
+            if (node instanceof Expr) {
+                ((Expr) node).writeState(this);
+            } else {
+                ((Stmt) node).writeState(this);
+            }
+        }
+        out.flush();
+    }
+
+    void write(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(NUMBER);
+            out.writeDouble((double) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString((String) value);
+        } else if (value instanceof Token) {
+            Token token = (Token) value;
+            out.writeByte(TOKEN);
+            out.writeByte(token.type.ordinal());
+            write(token.lexeme);
+            write(token.literal);
+            out.writeInt(token.line);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list) write(element);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte(ARRAY);
+            out.writeInt(array.length);
+            for (Object element : array) write(element);
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            out.writeByte(INTS);
+            out.writeInt(array.length);
+            for (int element : array) out.writeInt(element);
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            out.writeShort(((Enum<?>) value).ordinal());
+        } else if (seen.containsKey(value)) {
+            out.writeByte(SEEN);
+            out.writeInt(seen.get(value));
+        } else if (value instanceof Expr) {
+            Expr expr = (Expr) value;
+            out.writeByte(EXPR);
+            out.writeByte(expr.kind());
+            expr.writeFields(this);
+            add(expr);
+        } else if (value instanceof Stmt) {
+            Stmt stmt = (Stmt) value;
+            out.writeByte(STMT);
+            out.writeByte(stmt.kind());
+            stmt.writeFields(this);
+            add(stmt);
+        } else if (value instanceof Invariant) {
+            // The values are computed again at runtime.
+            out.writeByte(INVARIANT);
+            seen.put(value, seen.size());
+        } else {
+            throw new IOException("Cannot write " + value.getClass().getName() + ".");
+        }
+    }
+
+    void writeInt(int value) throws IOException {
+        out.writeInt(value);
+    }
+
+    void writeBoolean(boolean value) throws IOException {
+        out.writeBoolean(value);
+    }
+
+    void writeDouble(double value) throws IOException {
+        out.writeDouble(value);
+    }
+
+    private void add(Object node) {
+        seen.put(node, seen.size());
+        pending.add(node);
+    }
+
+    // Unlike writeUTF(), not limited to 64K.
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,7 @@
+package com.company.fail;
+
+// Types TypeInference can prove a value to have before the program runs.
+enum Type {
+    NUMBER,
+    STRING
+}
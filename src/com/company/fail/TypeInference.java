@@ -0,0 +1,397 @@
+package com.company.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Works out, following the order statements run in, which local variables
+// hold a number or a string at each place they are read, and marks binary
+// operations whose operands are known to be numbers or strings so the
+// Interpreter can run them without checking. Only locals that no closure
+// captures are followed, as nothing else can change them behind the code's
+// back. An operation that fails stops the code after it, so for example
+// "a - b" is a number wherever it is used, whatever a and b are.
+// Runs on a resolved tree, after the Optimizer.
+class TypeInference implements Expr.Visitor<Type>, Stmt.Visitor<Void> {
+    // Known types of the slots of the frame being looked at, or null where
+    // the code cannot be reached.
+    private Map<Integer, Type> slots = new HashMap<>();
+    // Slots at each break and continue of the innermost loop.
+    private List<Map<Integer, Type>> breaks = new ArrayList<>();
+    private List<Map<Integer, Type>> continues = new ArrayList<>();
+    // Functions found along the way, each looked at with a frame of its own.
+    private final Map<Expr.Function, Boolean> functions = new IdentityHashMap<>();
+    private final List<Expr.Function> pending = new ArrayList<>();
+    // Nodes looked at before. Loops are looked at more than once, and a node
+    // only keeps a type that held every time.
+    private final Map<Expr, Boolean> seen = new IdentityHashMap<>();
+
+    void infer(List<Stmt> statements) {
+        infer(statements, new HashMap<>());
+        finish();
+    }
+
+    void infer(Expr expr) {
+        infer(expr, new HashMap<>());
+        finish();
+    }
+
+    private void finish() {
+        while (!pending.isEmpty()) {
+            Expr.Function function = pending.remove(pending.size() - 1);
+            infer(function.body, new HashMap<>());
+        }
+    }
+
+    private void infer(List<Stmt> statements, Map<Integer, Type> frame) {
+        Map<Integer, Type> enclosing = slots;
+        slots = frame;
+        walk(statements);
+        slots = enclosing;
+    }
+
+    private void infer(Expr expr, Map<Integer, Type> frame) {
+        Map<Integer, Type> enclosing = slots;
+        slots = frame;
+        type(expr);
+        slots = enclosing;
+    }
+
+    private void walk(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            if (slots == null) return;
+            statements.get(i).accept(this);
+        }
+    }
+
+    private Type type(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void defer(Expr.Function function) {
+        if (functions.put(function, true) == null) pending.add(function);
+    }
+
+    private static Map<Integer, Type> copy(Map<Integer, Type> slots) {
+        return slots == null ? null : new HashMap<>(slots);
+    }
+
+    // The slots as they are after either of two paths.
+    private static Map<Integer, Type> join(Map<Integer, Type> a, Map<Integer, Type> b) {
+        if (a == null) return copy(b);
+        if (b == null) return copy(a);
+
+        Map<Integer, Type> joined = new HashMap<>();
+        for (Map.Entry<Integer, Type> entry : a.entrySet()) {
+            if (entry.getValue() == b.get(entry.getKey())) {
+                joined.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return joined;
+    }
+
+    private static Type join(Type a, Type b) {
+        return a == b ? a : null;
+    }
+
+    private boolean isFirstVisit(Expr expr) {
+        return seen.put(expr, true) == null;
+    }
+
+    private static boolean isTracked(Expr.Variable variable) {
+        return !variable.isGlobal && !variable.isUpvalue && !variable.isBoxed;
+    }
+
+    private void assign(Expr.Variable variable, Type type) {
+        if (isTracked(variable)) put(variable.slot, type);
+    }
+
+    private void put(int slot, Type type) {
+        if (type == null) {
+            slots.remove(slot);
+        } else {
+            slots.put(slot, type);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // A block outside of any function has a frame of its own.
+        if (!stmt.flattened) {
+            infer(stmt.statements, new HashMap<>());
+            return null;
+        }
+
+        walk(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (stmt.superclass != null) type(stmt.superclass);
+        for (Stmt.Function method : stmt.classMethods) defer(method.function);
+        for (Stmt.Function method : stmt.methods) defer(method.function);
+        put(stmt.slot, null);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        defer(stmt.function);
+        put(stmt.slot, null);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        type(stmt.condition);
+
+        Map<Integer, Type> before = slots;
+        slots = copy(before);
+        stmt.thenBranch.accept(this);
+        Map<Integer, Type> afterThen = slots;
+
+        slots = before;
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        slots = join(afterThen, slots);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) type(stmt.value);
+        slots = null;
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Type type = stmt.initializer == null ? null : type(stmt.initializer);
+        put(stmt.slot, stmt.isBoxed ? null : type);
+        return null;
+    }
+
+    // Goes around the loop until the slots at its start stop changing.
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        List<Map<Integer, Type>> enclosingBreaks = breaks;
+        List<Map<Integer, Type>> enclosingContinues = continues;
+
+        Map<Integer, Type> start = slots;
+        for (;;) {
+            breaks = new ArrayList<>();
+            continues = new ArrayList<>();
+
+            slots = copy(start);
+            Map<Integer, Type> exit;
+            if (stmt.isDoWhile) {
+                stmt.body.accept(this);
+                for (Map<Integer, Type> jump : continues) slots = join(slots, jump);
+                if (slots != null) type(stmt.condition);
+                exit = slots;
+            } else {
+                type(stmt.condition);
+                exit = slots;
+
+                slots = copy(exit);
+                stmt.body.accept(this);
+                for (Map<Integer, Type> jump : continues) slots = join(slots, jump);
+            }
+
+            Map<Integer, Type> next = join(start, slots);
+            if (Objects.equals(next, start)) {
+                for (Map<Integer, Type> jump : breaks) exit = join(exit, jump);
+                slots = exit;
+                break;
+            }
+            start = next;
+        }
+
+        breaks = enclosingBreaks;
+        continues = enclosingContinues;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        breaks.add(slots);
+        slots = null;
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        continues.add(slots);
+        slots = null;
+        return null;
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        Type type = type(expr.value);
+        if (expr.equals.type != TokenType.EQUAL) type = Type.NUMBER;
+        if (!expr.isGlobal && !expr.isUpvalue && !expr.isBoxed) put(expr.slot, type);
+        return type;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        Type left = type(expr.left);
+        Type right = type(expr.right);
+
+        Type operands = null;
+        Type type = null;
+        switch (expr.operator.type) {
+            case COMMA:
+                type = right;
+                break;
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                if (left == right) operands = left;
+                break;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                if (left == Type.NUMBER && right == Type.NUMBER) operands = Type.NUMBER;
+                break;
+            case MINUS:
+            case SLASH:
+            case STAR_STAR:
+                if (left == Type.NUMBER && right == Type.NUMBER) operands = Type.NUMBER;
+                type = Type.NUMBER;
+                break;
+            case PLUS:
+                if (left == right) operands = type = left;
+                break;
+            case STAR:
+                if (left == Type.NUMBER && right == Type.NUMBER) operands = type = Type.NUMBER;
+                if (left == Type.NUMBER && right == Type.STRING ||
+                        left == Type.STRING && right == Type.NUMBER) {
+                    type = Type.STRING;
+                }
+                break;
+        }
+
+        if (isFirstVisit(expr)) {
+            expr.operands = operands;
+        } else {
+            expr.operands = join(expr.operands, operands);
+        }
+        return type;
+    }
+
+    @Override
+    public Type visitFunctionExpr(Expr.Function expr) {
+        defer(expr);
+        return null;
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        type(expr.callee);
+        for (Expr argument : expr.arguments) type(argument);
+        return null;
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+        type(expr.object);
+        return null;
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+        type(expr.object);
+        return type(expr.value);
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return type(expr.expression);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double) return Type.NUMBER;
+        if (expr.value instanceof String) return Type.STRING;
+        return null;
+    }
+
+    // The right operand may not run at all.
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        Type left = type(expr.left);
+        Map<Integer, Type> before = copy(slots);
+        Type right = type(expr.right);
+        slots = join(before, slots);
+        return join(left, right);
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        type(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+                return Type.NUMBER;
+            case PLUS_PLUS:
+            case MINUS_MINUS:
+                if (expr.right instanceof Expr.Variable) {
+                    assign((Expr.Variable) expr.right, Type.NUMBER);
+                }
+                return Type.NUMBER;
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitTernaryExpr(Expr.Ternary expr) {
+        type(expr.expr);
+
+        Map<Integer, Type> before = slots;
+        slots = copy(before);
+        Type thenType = type(expr.thenBranch);
+        Map<Integer, Type> afterThen = slots;
+
+        slots = before;
+        Type elseType = type(expr.elseBranch);
+        slots = join(afterThen, slots);
+        return join(thenType, elseType);
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        Type type = isTracked(expr) ? slots.get(expr.slot) : null;
+        if (isFirstVisit(expr)) {
+            expr.type = type;
+        } else {
+            expr.type = join(expr.type, type);
+        }
+        return type;
+    }
+}
@@ -0,0 +1,614 @@
+package com.company.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class VM {
+    private static final int FRAMES_MAX = 1024;
+    private static final int STACK_MAX = FRAMES_MAX * 256;
+    private static final Object uninitialized = new Object();
+    private static final Object undefined = new Object();
+
+    private static class CallFrame {
+        ObjClosure closure;
+        int ip;
+        int slots;
+    }
+
+    private final Object[] stack = new Object[STACK_MAX];
+    private int stackTop = 0;
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+    private final Map<String, Integer> globalSlots = new HashMap<>();
+    private String[] globalNames = new String[64];
+    private Object[] globalValues = new Object[64];
+    private ObjUpvalue openUpvalues = null;
+
+    VM() {
+        for (int i = 0; i < FRAMES_MAX; i++) {
+            frames[i] = new CallFrame();
+        }
+        for (Map.Entry<String, Callable> entry : Natives.all().entrySet()) {
+            globalValues[globalSlot(entry.getKey())] = entry.getValue();
+        }
+    }
+
+    // Global variables live in a flat table so that compiled code can refer
+    // to them by index. Slots are created on first mention and stay
+    // undefined until a declaration runs.
+    int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot != null) return slot;
+
+        slot = globalSlots.size();
+        if (slot == globalValues.length) {
+            globalNames = Arrays.copyOf(globalNames, slot * 2);
+            globalValues = Arrays.copyOf(globalValues, slot * 2);
+        }
+        globalNames[slot] = name;
+        globalValues[slot] = undefined;
+        globalSlots.put(name, slot);
+        return slot;
+    }
+
+    String interpret(ObjFunction function) {
+        ObjClosure closure = new ObjClosure(function);
+        stack[stackTop++] = closure;
+        try {
+            call(closure, 0, 0);
+            return Interpreter.stringify(run());
+        } catch (RuntimeError error) {
+            Fail.runtimeError(error);
+            return null;
+        } finally {
+            resetStack();
+        }
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, null);
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private Object run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int slots = frame.slots;
+        Object[] stack = this.stack;
+        Object[] globals = this.globalValues;
+        int sp = stackTop;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT: {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    stack[sp++] = constants[index];
+                    break;
+                }
+                case OpCode.NONE:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = true;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = false;
+                    break;
+                case OpCode.UNINITIALIZED:
+                    stack[sp++] = uninitialized;
+                    break;
+                case OpCode.POP:
+                    stack[--sp] = null;
+                    break;
+                case OpCode.DUP:
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    break;
+                case OpCode.GET_LOCAL: {
+                    Object value = stack[slots + (code[ip++] & 0xff)];
+                    if (value == uninitialized) {
+                        frame.ip = ip;
+                        throw error("Variable must be initialized before use.");
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.SET_LOCAL:
+                    stack[slots + (code[ip++] & 0xff)] = stack[sp - 1];
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    Object value = globals[slot];
+                    if (value == undefined) {
+                        frame.ip = ip;
+                        throw error("Undefined variable '" + globalNames[slot] + "'.");
+                    }
+                    if (value == uninitialized) {
+                        frame.ip = ip;
+                        throw error("Variable must be initialized before use.");
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    globals[slot] = stack[--sp];
+                    stack[sp] = null;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (globals[slot] == undefined) {
+                        frame.ip = ip;
+                        throw error("Undefined variable '" + globalNames[slot] + "'.");
+                    }
+                    globals[slot] = stack[sp - 1];
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    Object value = upvalue.location >= 0 ? stack[upvalue.location] : upvalue.closed;
+                    if (value == uninitialized) {
+                        frame.ip = ip;
+                        throw error("Variable must be initialized before use.");
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.location >= 0) {
+                        stack[upvalue.location] = stack[sp - 1];
+                    } else {
+                        upvalue.closed = stack[sp - 1];
+                    }
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    frame.ip = ip;
+
+                    Object object = stack[sp - 1];
+                    if (!(object instanceof ObjInstance)) {
+                        throw error("Only instances have properties.");
+                    }
+
+                    ObjInstance instance = (ObjInstance) object;
+                    Object value = instance.fields.get(name);
+                    if (value != null || instance.fields.containsKey(name)) {
+                        stack[sp - 1] = value;
+                        if (!isGetter(value)) break;
+                        stackTop = sp;
+                        callValue(value, 0);
+                    } else {
+                        ObjClosure method = instance.klass.findMethod(name);
+                        if (method == null) {
+                            throw error("Undefined property '" + name + "'.");
+                        }
+
+                        if (!method.function.isGetter) {
+                            stack[sp - 1] = new ObjBoundMethod(instance, method);
+                            break;
+                        }
+                        stackTop = sp;
+                        call(method, 0, sp - 1);
+                    }
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    slots = frame.slots;
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+
+                    Object object = stack[sp - 2];
+                    if (!(object instanceof ObjInstance)) {
+                        frame.ip = ip;
+                        throw error("Only instances have fields.");
+                    }
+
+                    Object value = stack[--sp];
+                    ((ObjInstance) object).fields.put(name, value);
+                    stack[sp] = null;
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+
+                    ObjClass superclass = (ObjClass) stack[--sp];
+                    stack[sp] = null;
+                    ObjClosure method = superclass.findMethod(name);
+                    if (method == null) {
+                        frame.ip = ip;
+                        throw error("Undefined property '" + name + "'.");
+                    }
+
+                    stack[sp - 1] = new ObjBoundMethod(stack[sp - 1], method);
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    stack[sp] = null;
+                    stack[sp - 1] = isEqual(a, b);
+                    break;
+                }
+                case OpCode.GREATER:
+                case OpCode.GREATER_EQUAL:
+                case OpCode.LESS:
+                case OpCode.LESS_EQUAL: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    stack[sp] = null;
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+
+                    double left = (double) a;
+                    double right = (double) b;
+                    boolean result;
+                    switch (code[ip - 1]) {
+                        case OpCode.GREATER: result = left > right; break;
+                        case OpCode.GREATER_EQUAL: result = left >= right; break;
+                        case OpCode.LESS: result = left < right; break;
+                        default: result = left <= right; break;
+                    }
+                    stack[sp - 1] = result;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    stack[sp] = null;
+                    if (a instanceof Double && b instanceof Double) {
+                        stack[sp - 1] = (double) a + (double) b;
+                    } else if (a instanceof String && b instanceof String) {
+                        stack[sp - 1] = (String) a + (String) b;
+                    } else {
+                        frame.ip = ip;
+                        throw error("Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT:
+                case OpCode.DIVIDE:
+                case OpCode.POWER: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    stack[sp] = null;
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    stack[sp - 1] = arithmetic(code[ip - 1], (double) a, (double) b);
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    stack[sp] = null;
+                    if (a instanceof Double && b instanceof Double) {
+                        stack[sp - 1] = (double) a * (double) b;
+                    } else if (a instanceof Double) {
+                        frame.ip = ip;
+                        stack[sp - 1] = multiplyString(Interpreter.stringify(b), (double) a);
+                    } else if (b instanceof Double) {
+                        frame.ip = ip;
+                        stack[sp - 1] = multiplyString(Interpreter.stringify(a), (double) b);
+                    } else {
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    Object value = stack[sp - 1];
+                    if (value instanceof Double) {
+                        stack[sp - 1] = -(double) value;
+                        break;
+                    }
+
+                    frame.ip = ip;
+                    if ("muffin".equals(Interpreter.stringify(value))) {
+                        throw error("I don't know, man, can you negate a muffin?");
+                    }
+                    throw error("Operand must be a number.");
+                }
+                case OpCode.INCREMENT:
+                case OpCode.DECREMENT: {
+                    Object value = stack[sp - 1];
+                    if (!(value instanceof Double)) {
+                        frame.ip = ip;
+                        throw error("Operand must be a number.");
+                    }
+                    double delta = code[ip - 1] == OpCode.INCREMENT ? 1 : -1;
+                    stack[sp - 1] = (double) value + delta;
+                    break;
+                }
+                case OpCode.COMPOUND: {
+                    byte operator = code[ip++];
+                    Object current = stack[--sp];
+                    Object value = stack[sp - 1];
+                    stack[sp] = null;
+                    if (!(current instanceof Double) || !(value instanceof Double)) {
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    stack[sp - 1] = arithmetic(operator, (double) current, (double) value);
+                    break;
+                }
+                case OpCode.PRINT:
+                    System.out.println(Interpreter.stringify(stack[--sp]));
+                    stack[sp] = null;
+                    break;
+                case OpCode.JUMP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 + offset;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (!isTruthy(stack[sp - 1])) ip += offset;
+                    break;
+                }
+                case OpCode.LOOP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 - offset;
+                    break;
+                }
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    stackTop = sp;
+                    callValue(stack[sp - argCount - 1], argCount);
+                    sp = stackTop;
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    slots = frame.slots;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    ObjFunction function = (ObjFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClosure closure = new ObjClosure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        if (isLocal) {
+                            closure.upvalues[i] = captureUpvalue(slots + index);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    stack[--sp] = null;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[sp - 1];
+                    closeUpvalues(slots);
+                    frameCount--;
+                    for (int i = slots; i < sp; i++) {
+                        stack[i] = null;
+                    }
+
+                    if (frameCount == 0) {
+                        stackTop = 0;
+                        return result;
+                    }
+
+                    sp = slots;
+                    stack[sp++] = result;
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    slots = frame.slots;
+                    break;
+                }
+                case OpCode.CLASS: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    boolean hasSuperclass = code[ip + 2] == 1;
+                    ip += 3;
+
+                    ObjClass superclass = null;
+                    if (hasSuperclass) {
+                        Object value = stack[--sp];
+                        stack[sp] = null;
+                        if (!(value instanceof ObjClass)) {
+                            frame.ip = ip;
+                            throw error("Superclass must be a class.");
+                        }
+                        superclass = (ObjClass) value;
+                    }
+
+                    ObjClass metaclass = new ObjClass(null, superclass, name + " metaclass");
+                    stack[sp++] = new ObjClass(metaclass, superclass, name);
+                    break;
+                }
+                case OpCode.METHOD:
+                case OpCode.CLASS_METHOD: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+
+                    ObjClosure method = (ObjClosure) stack[--sp];
+                    stack[sp] = null;
+                    ObjClass klass = (ObjClass) stack[sp - 1];
+                    if (code[ip - 3] == OpCode.CLASS_METHOD) klass = klass.klass;
+                    klass.methods.put(name, method);
+                    break;
+                }
+                case OpCode.ERROR: {
+                    String message = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    frame.ip = ip;
+                    throw error(message);
+                }
+            }
+        }
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof ObjClosure) {
+            call((ObjClosure) callee, argCount, stackTop - argCount - 1);
+            return;
+        }
+
+        if (callee instanceof ObjBoundMethod) {
+            ObjBoundMethod bound = (ObjBoundMethod) callee;
+            int slots = stackTop - argCount - 1;
+            stack[slots] = bound.receiver;
+            call(bound.method, argCount, slots);
+            return;
+        }
+
+        if (callee instanceof ObjClass) {
+            ObjClass klass = (ObjClass) callee;
+            int slots = stackTop - argCount - 1;
+            stack[slots] = new ObjInstance(klass);
+
+            ObjClosure initializer = klass.methods.get("init");
+            if (initializer != null) {
+                call(initializer, argCount, slots);
+            } else if (argCount != 0) {
+                throw error("Expected 0 arguments but got " + argCount + ".");
+            }
+            return;
+        }
+
+        if (callee instanceof Callable) {
+            Callable function = (Callable) callee;
+            if (argCount != function.arity()) {
+                throw error("Expected " + function.arity() +
+                        " arguments but got " + argCount + ".");
+            }
+
+            Object[] arguments = new Object[argCount];
+            for (int i = 0; i < argCount; i++) {
+                arguments[i] = stack[stackTop - argCount + i];
+                stack[stackTop - argCount + i] = null;
+            }
+            stackTop -= argCount;
+            stack[stackTop - 1] = function.call(null, arguments);
+            return;
+        }
+
+        throw error("Can only call functions and classes.");
+    }
+
+    private void call(ObjClosure closure, int argCount, int slots) {
+        if (argCount != closure.function.arity) {
+            throw error("Expected " + closure.function.arity +
+                    " arguments but got " + argCount + ".");
+        }
+
+        if (frameCount == FRAMES_MAX) {
+            throw error("Stack overflow.");
+        }
+
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.slots = slots;
+    }
+
+    private boolean isGetter(Object value) {
+        if (value instanceof ObjBoundMethod) {
+            return ((ObjBoundMethod) value).method.function.isGetter;
+        }
+        return false;
+    }
+
+    private ObjUpvalue captureUpvalue(int location) {
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.location > location) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.location == location) return upvalue;
+
+        ObjUpvalue created = new ObjUpvalue(location);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.location >= last) {
+            ObjUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.location];
+            upvalue.location = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private double arithmetic(byte operator, double a, double b) {
+        switch (operator) {
+            case OpCode.ADD: return a + b;
+            case OpCode.SUBTRACT: return a - b;
+            case OpCode.MULTIPLY: return a * b;
+            case OpCode.DIVIDE: return a / b;
+            default: return Interpreter.power(a, b);
+        }
+    }
+
+    private boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    private boolean isEqual(Object a, Object b) {
+        // none is only equal to none.
+        return a == null && b == null || a != null && a.equals(b);
+    }
+
+    private String multiplyString(String s, double n) {
+        if (n % 1 != 0) throw error("String multiplier must be an integer.");
+        int multiplier = (int) n;
+        if (multiplier < 0) multiplier = 0;
+
+        return s.repeat(multiplier);
+    }
+
+    // Reports at the line of the instruction the innermost frame is on.
+    private RuntimeError error(String message) {
+        CallFrame frame = frames[frameCount - 1];
+        int line = frame.closure.function.chunk.lines[frame.ip - 1];
+        return new RuntimeError(line, message);
+    }
+}
@@ -4,8 +4,14 @@ import java.io.IOException;
         import java.io.PrintWriter;
         import java.util.Arrays;
         import java.util.List;
+        import java.util.Set;
 
 public class GenerateAst {
+    // Types of the fields the Interpreter fills in as it runs, which are not
+    // written out with the tree.
+    private static final Set<String> RUNTIME_TYPES =
+            Set.of("Cell", "CallCache", "PropertyCache", "CompiledCode");
+
     public static void main(String[] args) throws IOException {
         if (args.length != 1) {
             System.err.println("Usage: generate_ast <output directory>");
@@ -13,31 +19,31 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value, Token equals",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Function : List<Token> parameters, List<Stmt> body",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
-                "Get      : Expr object, Token name",
-                "Set      : Expr object, Token name, Expr value",
+                "Assign   : Token name, Expr value, Token equals | int slot, boolean isGlobal, boolean isUpvalue, boolean isBoxed, Cell cell, Superinstruction superinstruction, double step",
+                "Binary   : Expr left, Token operator, Expr right | Specialization specialization, Invariant invariant, Superinstruction superinstruction, Type operands",
+                "Function : List<Token> parameters, List<Stmt> body | int size, int[] captures, int[] boxedParameters, Expr result, int hotness, CompiledCode compiled",
+                "Call     : Expr callee, Token paren, List<Expr> arguments | CallCache cache, int calls, Expr inlined, Expr.Function inlinedFunction",
+                "Super    : Token keyword, Token method | int slot, Expr.This receiver",
+                "This     : Token keyword | int slot, boolean isUpvalue, boolean isBoxed",
+                "Get      : Expr object, Token name | PropertyCache cache, Invariant invariant, int calls, Expr inlined, Expr.Function inlinedFunction",
+                "Set      : Expr object, Token name, Expr value | PropertyCache cache",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Unary    : Token operator, Expr right, Boolean postfix",
+                "Unary    : Token operator, Expr right, Boolean postfix | Superinstruction superinstruction",
                 "Ternary  : Expr expr, Expr thenBranch, Expr elseBranch",
-                "Variable : Token name"
+                "Variable : Token name | int slot, boolean isGlobal, boolean isUpvalue, boolean isBoxed, Cell cell, Stmt.Var declaration, Type type"
                 ));
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Class      : Token name, Expr superclass, List<Stmt.Function> methods, List<Stmt.Function> classMethods",
+                "Block      : List<Stmt> statements | boolean flattened, int size",
+                "Class      : Token name, Expr superclass, List<Stmt.Function> methods, List<Stmt.Function> classMethods | int slot, boolean isBoxed, int superSlot",
                 "Expression : Expr expression",
-                "Function   : Token name, Expr.Function function",
+                "Function   : Token name, Expr.Function function | int slot, boolean isBoxed",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
-                "While      : Expr condition, Stmt body",
+                "Return     : Token keyword, Expr value | boolean isTailCall",
+                "Var        : Token name, Expr initializer | int slot, boolean isBoxed, boolean isFinal, boolean isRead",
+                "While      : Expr condition, Stmt body, boolean isDoWhile | List<Invariant> invariants",
                 "Break      : ",
                 "Continue   : "
                 ));
@@ -50,6 +56,7 @@ public class GenerateAst {
 
         writer.println("package com.company.fail;");
         writer.println("");
+        writer.println("import java.io.IOException;");
         writer.println("import java.util.List;");
         writer.println("");
         writer.println("abstract class " + baseName + " {");
@@ -57,23 +64,49 @@ public class GenerateAst {
         defineVisitor(writer, baseName, types);
 
         // The AST classes.
-        for (String type : types) {
+        for (int kind = 0; kind < types.size(); kind++) {
+            String type = types.get(kind);
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fields = type.split(":")[1].split("\\|");
+            String mutableFields = fields.length > 1 ? fields[1].trim() : "";
+            defineType(writer, baseName, className, kind, fields[0].trim(), mutableFields);
         }
 
+        // Reading a node of any kind.
+        writer.println("");
+        writer.println("  static " + baseName + " read(TreeReader in, int kind) throws IOException {");
+        writer.println("    switch (kind) {");
+        for (int kind = 0; kind < types.size(); kind++) {
+            String className = types.get(kind).split(":")[0].trim();
+            writer.println("      case " + kind + ": return " + className + ".read(in);");
+        }
+        writer.println("    }");
+        writer.println("    throw new IOException(\"Unknown kind of " + baseName + ".\");");
+        writer.println("  }");
+
         // The base accept() method.
         writer.println("");
         writer.println("  abstract <R> R accept(Visitor<R> visitor);");
 
+        // The base methods TreeWriter and TreeReader use. The fields given to
+        // the constructor are written first, and the ones filled in after
+        // parsing once every node exists, as they may refer to any node.
+        writer.println("");
+        writer.println("  abstract int kind();");
+        writer.println("");
+        writer.println("  abstract void writeFields(TreeWriter out) throws IOException;");
+        writer.println("");
+        writer.println("  abstract void writeState(TreeWriter out) throws IOException;");
+        writer.println("");
+        writer.println("  abstract void readState(TreeReader in) throws IOException;");
+
         writer.println("}");
         writer.close();
     }
 
     private static void defineType(
-            PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            PrintWriter writer, String baseName, String className, int kind,
+            String fieldList, String mutableFieldList) {
         writer.println("");
         writer.println("  static class " + className + " extends " +
                 baseName + " {");
@@ -92,6 +125,21 @@ public class GenerateAst {
 
         writer.println("    }");
 
+        // Reading the fields from a TreeReader, in the order they are
+        // written, which is the order Java evaluates the arguments in.
+        writer.println();
+        writer.println("    static " + className + " read(TreeReader in) throws IOException {");
+        if (fields.length == 0) {
+            writer.println("      return new " + className + "();");
+        } else {
+            writer.println("      return new " + className + "(");
+            for (int i = 0; i < fields.length; i++) {
+                writer.println("          " + read(fields[i].split(" ")[0]) +
+                        (i + 1 < fields.length ? "," : ");"));
+            }
+        }
+        writer.println("    }");
+
         // Visitor pattern.
         writer.println();
         writer.println("    <R> R accept(Visitor<R> visitor) {");
@@ -105,9 +153,68 @@ public class GenerateAst {
             writer.println("    final " + field + ";");
         }
 
+        // Fields filled in after parsing, e.g. by the Resolver.
+        String[] mutableFields = mutableFieldList.split(", ");
+        if (mutableFieldList.isEmpty()) mutableFields = new String[0];
+        for (String field : mutableFields) {
+            writer.println("    " + field + ";");
+        }
+
+        // Writing and reading.
+        writer.println();
+        writer.println("    int kind() {");
+        writer.println("      return " + kind + ";");
+        writer.println("    }");
+
+        writer.println();
+        writer.println("    void writeFields(TreeWriter out) throws IOException {");
+        for (String field : fields) {
+            writer.println("      " + write(field.split(" ")[0], field.split(" ")[1]) + ";");
+        }
+        writer.println("    }");
+
+        writer.println();
+        writer.println("    void writeState(TreeWriter out) throws IOException {");
+        for (String field : mutableFields) {
+            String type = field.split(" ")[0];
+            if (RUNTIME_TYPES.contains(type)) continue;
+            writer.println("      " + write(type, field.split(" ")[1]) + ";");
+        }
+        writer.println("    }");
+
+        writer.println();
+        writer.println("    void readState(TreeReader in) throws IOException {");
+        for (String field : mutableFields) {
+            String type = field.split(" ")[0];
+            if (RUNTIME_TYPES.contains(type)) continue;
+            writer.println("      " + field.split(" ")[1] + " = " + read(type) + ";");
+        }
+        writer.println("    }");
+
         writer.println("  }");
     }
 
+    private static String write(String type, String name) {
+        switch (type) {
+            case "int": return "out.writeInt(" + name + ")";
+            case "boolean": return "out.writeBoolean(" + name + ")";
+            case "double": return "out.writeDouble(" + name + ")";
+            default: return "out.write(" + name + ")";
+        }
+    }
+
+    private static String read(String type) {
+        switch (type) {
+            case "int": return "in.readInt()";
+            case "boolean": return "in.readBoolean()";
+            case "double": return "in.readDouble()";
+        }
+        if (type.startsWith("List<")) {
+            return "in.readList(" + type.substring(5, type.length() - 1) + ".class)";
+        }
+        return "in.read(" + type + ".class)";
+    }
+
     private static void defineVisitor(
             PrintWriter writer, String baseName, List<String> types) {
         writer.println("  interface Visitor<R> {");
@@ -6,8 +6,10 @@ from collections import defaultdict
 from os import listdir
 from os.path import abspath, basename, dirname, isdir, isfile, join, realpath, relpath, splitext
 import re
+from shutil import rmtree
 from subprocess import Popen, PIPE
 import sys
+from tempfile import mkdtemp
 
 # Runs the tests.
 REPO_DIR = dirname(dirname(realpath(__file__)))
@@ -35,11 +37,13 @@ JAVA_SUITES = []
 
 
 class Interpreter:
-  def __init__(self, name, language, args, tests):
+  def __init__(self, name, language, args, tests, jar=False):
     self.name = name
     self.language = language
     self.args = args
     self.tests = tests
+    # Whether args write a jar from the test, which is then run.
+    self.jar = jar
 
 
 def c_interpreter(name, tests):
@@ -52,9 +56,10 @@ def c_interpreter(name, tests):
   C_SUITES.append(name)
 
 
-def java_interpreter(name, tests):
+def java_interpreter(name, tests, flags=[], jar=False):
   INTERPRETERS[name] = Interpreter(name, 'java',
-      ['java', '-cp', 'build/java/jfail.jar', 'com.company.fail.Fail'], tests)
+      ['java', '-cp', 'build/java/jfail.jar', 'com.company.fail.Fail'] + flags,
+      tests, jar)
   JAVA_SUITES.append(name)
 
 
@@ -70,11 +75,40 @@ java_interpreter('jfail', {
   'test/limit/too_many_constants.fail': 'skip',
   'test/limit/too_many_locals.fail': 'skip',
   'test/limit/too_many_upvalues.fail': 'skip',
-
-  # Rely on JVM for stack overflow checking.
-  'test/limit/stack_overflow.fail': 'skip',
 })
 
+java_interpreter('jfail_vm', {
+  'test': 'pass',
+
+  # These are just for earlier chapters.
+  'test/scanning': 'skip',
+  'test/expressions': 'skip',
+
+  # The VM's limits are wider than clox's.
+  'test/limit/loop_too_large.fail': 'skip',
+  'test/limit/too_many_constants.fail': 'skip',
+  'test/limit/too_many_locals.fail': 'skip',
+  'test/limit/too_many_upvalues.fail': 'skip',
+
+  # No tail call elimination in the VM, and its frames are capped.
+  'test/limit/deep_tail_calls.fail': 'skip',
+  'test/limit/deep_recursion.fail': 'skip',
+}, ['--vm'])
+
+java_interpreter('jfail_jar', {
+  'test': 'pass',
+
+  # These are just for earlier chapters.
+  'test/scanning': 'skip',
+  'test/expressions': 'skip',
+
+  # No hardcoded limits in jfail.
+  'test/limit/loop_too_large.fail': 'skip',
+  'test/limit/too_many_constants.fail': 'skip',
+  'test/limit/too_many_locals.fail': 'skip',
+  'test/limit/too_many_upvalues.fail': 'skip',
+}, ['--compile'], jar=True)
+
 java_interpreter('chap04_scanning', {
   # No interpreter yet.
   'test': 'skip',
@@ -763,6 +797,10 @@ class Test:
 
 
   def run(self):
+    if interpreter.jar:
+      self.run_jar()
+      return
+
     # Invoke the interpreter and run the test.
     args = interpreter.args[:]
     args.append(self.path)
@@ -772,6 +810,26 @@ class Test:
     self.validate(proc.returncode, out, err)
 
 
+  def run_jar(self):
+    # Write a jar from the test. Compile errors stop it there, otherwise the
+    # jar is run and validated along with what writing it printed.
+    dir = mkdtemp()
+    try:
+      jar = join(dir, 'test.jar')
+      args = interpreter.args + [self.path, '-o', jar]
+      proc = Popen(args, stdin=PIPE, stdout=PIPE, stderr=PIPE)
+      out, err = proc.communicate()
+      if proc.returncode != 0:
+        self.validate(proc.returncode, out, err)
+        return
+
+      proc = Popen(['java', '-jar', jar], stdin=PIPE, stdout=PIPE, stderr=PIPE)
+      run_out, run_err = proc.communicate()
+      self.validate(proc.returncode, out + run_out, err + run_err)
+    finally:
+      rmtree(dir)
+
+
   def validate(self, exit_code, out, err):
     if self.compile_errors and self.runtime_error_message:
       self.fail("Test error: Cannot expect both compile and runtime errors.")